@@ -0,0 +1,183 @@
+package de.pfannekuchen.forgenogradleapi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+
+import net.md_5.specialsource.provider.InheritanceProvider;
+import net.md_5.specialsource.repo.ClassRepo;
+
+/**
+ * Contents of the exported jar, merged from archives and folders without extracting or copying them. Later sources replace entries of earlier ones
+ * @author agent
+ */
+public class ExportJar implements Closeable, InheritanceProvider, ClassRepo {
+	
+	/**
+	 * Reads the content of an entry
+	 */
+	@FunctionalInterface
+	private static interface Source {
+		
+		byte[] read() throws IOException;
+	
+	}
+	
+	/**
+	 * All entries by name in order of appearance
+	 */
+	private final Map<String, Source> entries = new LinkedHashMap<>();
+	
+	/**
+	 * Opened archives, closed with the jar
+	 */
+	private final List<ZipFile> archives = new ArrayList<>();
+	
+	/**
+	 * Parsed classes without code, for the inheritance and the remapper
+	 */
+	private final Map<String, ClassNode> nodes = new ConcurrentHashMap<>();
+	
+	/**
+	 * Adds all entries of an archive
+	 * @param archive Archive to add
+	 * @throws IOException Unable to open the archive
+	 */
+	public void addArchive(File archive) throws IOException {
+		final ZipFile zip = new ZipFile(archive);
+		archives.add(zip);
+		final Enumeration<? extends ZipEntry> list = zip.entries();
+		while (list.hasMoreElements()) {
+			final ZipEntry entry = list.nextElement();
+			put(entry.getName(), () -> readAll(zip.getInputStream(entry)));
+		}
+	}
+	
+	/**
+	 * Adds all files and folders of a folder
+	 * @param folder Folder to add
+	 * @throws IOException Unable to list the folder
+	 */
+	public void addFolder(File folder) throws IOException {
+		final Path root = folder.toPath();
+		try (Stream<Path> files = Files.walk(root)) {
+			files.filter(path -> !path.equals(root)).sorted().forEach(path -> {
+				final String name = root.relativize(path).toString().replace(File.separatorChar, '/');
+				if (Files.isDirectory(path)) put(name + "/", () -> new byte[0]);
+				else put(name, () -> Files.readAllBytes(path));
+			});
+		}
+	}
+	
+	/**
+	 * Adds or replaces an entry
+	 * @param name Name of the entry
+	 * @param content Content of the entry
+	 */
+	public void add(String name, byte[] content) {
+		put(name, () -> content);
+	}
+	
+	/**
+	 * Removes an entry
+	 * @param name Name of the entry
+	 */
+	public void remove(String name) {
+		entries.remove(name);
+		nodes.remove(name.endsWith(".class") ? name.substring(0, name.length() - 6) : name);
+	}
+	
+	/**
+	 * @return Names of all entries in order of appearance
+	 */
+	public Set<String> getNames() {
+		return entries.keySet();
+	}
+	
+	/**
+	 * Reads an entry
+	 * @param name Name of the entry
+	 * @return Content of the entry or null if there is no such entry
+	 * @throws IOException Unable to read the entry
+	 */
+	public byte[] read(String name) throws IOException {
+		final Source source = entries.get(name);
+		return source == null ? null : source.read();
+	}
+	
+	@Override
+	public ClassNode findClass(String internalName) {
+		final ClassNode cached = nodes.get(internalName);
+		if (cached != null) return cached;
+		try {
+			final byte[] bytes = read(internalName + ".class");
+			if (bytes == null) return null;
+			final ClassNode node = new ClassNode();
+			new ClassReader(bytes).accept(node, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+			nodes.put(internalName, node);
+			return node;
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to read " + internalName, e);
+		}
+	}
+	
+	@Override
+	public Collection<String> getParents(String className) {
+		final ClassNode node = findClass(className);
+		if (node == null) return null;
+		final List<String> parents = new ArrayList<>(node.interfaces);
+		if (node.superName != null) parents.add(node.superName);
+		return parents;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		IOException failure = null;
+		for (ZipFile archive : archives) {
+			try {
+				archive.close();
+			} catch (IOException e) {
+				if (failure == null) failure = e;
+				else failure.addSuppressed(e);
+			}
+		}
+		archives.clear();
+		if (failure != null) throw failure;
+	}
+	
+	private void put(String name, Source source) {
+		// replaced entries move to the end, like they would when added to a zip again
+		entries.remove(name);
+		entries.put(name, source);
+		nodes.remove(name.endsWith(".class") ? name.substring(0, name.length() - 6) : name);
+	}
+	
+	private static byte[] readAll(InputStream in) throws IOException {
+		try (InputStream stream = in) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[32768];
+			int read;
+			while ((read = stream.read(buffer)) != -1) out.write(buffer, 0, read);
+			return out.toByteArray();
+		}
+	}
+
+}
@@ -1,31 +1,15 @@
 package de.pfannekuchen.forgenogradleapi;
 
-import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.SequenceInputStream;
-import java.net.URL;
-import java.net.URLClassLoader;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.FileVisitResult;
-import java.nio.file.FileVisitor;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
-import net.lingala.zip4j.ZipFile;
-import net.lingala.zip4j.model.FileHeader;
-import net.lingala.zip4j.model.ZipParameters;
-import net.md_5.specialsource.Jar;
 import net.md_5.specialsource.JarMapping;
-import net.md_5.specialsource.JarRemapper;
-import net.md_5.specialsource.provider.ClassLoaderProvider;
-import net.md_5.specialsource.provider.JarProvider;
-import net.md_5.specialsource.provider.JointProvider;
+import net.md_5.specialsource.provider.InheritanceProvider;
 
 /**
  * This Class contains everything needed to Export a Jar File runnable from forge
@@ -84,94 +68,90 @@ public class ExportMain {
 	private static final File MCFORGE = new File("mc-forge-1.12.2.jar");
 
 	/**
-	 * Exports a Jar File
-	 * @param args
+	 * Remapped classes of the last export
+	 */
+	private static final File REMAP_CACHE_DIR = new File("remapcache");
+	
+	/**
+	 * Inheritance of all classes of the libraries
+	 */
+	private static final File INHERITANCE_INDEX = new File(REMAP_CACHE_DIR, "inheritance.index");
+	
+	/**
+	 * Name of the manifest
+	 */
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	/**
+	 * Exports a Jar File, streaming all classes through both remappings at once
+	 * @param args --intermediates to also write the unmapped and the partially mapped jar for debugging, --threads=N to limit the threads remapping classes
 	 */
-	@SuppressWarnings("deprecation") // For some reason URL is deprecated
 	public static void main(String[] args) throws Exception {
-		/* Create the jar */
-		// Create a new Zip File based of	f the mixin file
-		Files.copy(MIXIN_FILE.toPath(), JAR_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING);
-		final ZipFile out = new ZipFile(JAR_FILE);
-		// Add Libs to Jar
-		File tempDir = Files.createTempDirectory("export").toFile();
-		if (!tempDir.exists()) tempDir.mkdirs();
-		for (File lib : USER_LIBS_FILE.listFiles()) {
-			final ZipFile libzip = new ZipFile(lib);
-			libzip.extractAll(tempDir.getAbsolutePath());
-			libzip.close();
-		}
-		for (File bin : tempDir.listFiles()) {
-			if (bin.isDirectory()) out.addFolder(bin);
-			else out.addFile(bin);
+		boolean intermediates = false;
+		int threads = Runtime.getRuntime().availableProcessors();
+		for (String arg : args) {
+			if ("--intermediates".equals(arg)) intermediates = true;
+			else if (arg.startsWith("--threads=")) threads = Integer.parseInt(arg.substring(10));
 		}
-		/* delete dir */
-		Files.walkFileTree(tempDir.toPath(), new FileVisitor<Path>() {
-			@Override public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException { return FileVisitResult.CONTINUE; }
-			@Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException { 
-				file.toFile().delete();
-				return FileVisitResult.CONTINUE; 
-			}
-			@Override public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException { return FileVisitResult.CONTINUE; }
-			@Override public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-				dir.toFile().delete();
-				return FileVisitResult.CONTINUE; 
-			}
-		});
-		// Add Files to Jar
-		for (File bin : BIN_DIR.listFiles()) {
-			if (bin.isDirectory()) out.addFolder(bin);
-			else out.addFile(bin);
-		}
-		// Create Manifest for Jar
-		ZipParameters parameters = new ZipParameters();
-		parameters.setOverrideExistingFilesInZip(true);
-		parameters.setFileNameInZip("META-INF/MANIFEST.MF");
-		ZipFile mixinFile = new ZipFile(MIXIN_FILE);
-		FileHeader header = mixinFile.getFileHeader("META-INF/MANIFEST.MF");
-		InputStream b = mixinFile.getInputStream(header);
-		out.addStream(new SequenceInputStream(new ByteArrayInputStream("FMLCorePluginContainsFMLMod: true\r\nMixinConfigs: mixin.json\r\nTweakClass: org.spongepowered.asm.launch.MixinTweaker\r\nForceLoadAsMod: true\r\n".getBytes(StandardCharsets.UTF_8)), b), parameters);
-		out.removeFile("searge.srg");
-		out.close();
-		mixinFile.close();
 		
-		/* Obfuscate the Jar */
-		// Prepare Remapper
-		JarMapping mapping = new JarMapping();
-		mapping.loadMappings(Files.newBufferedReader(MAPPINGS_FILE.toPath()), null, null, false);
-		JarMapping mixinmapping = new JarMapping();
-		mixinmapping.loadMappings(Files.newBufferedReader(SEARGE_SRG.toPath()), null, null, false);
-		JarRemapper remapper = new JarRemapper(null, mapping);
-		JarRemapper mixinremapper = new JarRemapper(null, mixinmapping);
+		/* Prepare Remapper */
+		// Compose both mappings into one
+		final JarMapping mapping = Mappings.load(MAPPINGS_FILE);
+		final JarMapping mixinmapping = Mappings.load(SEARGE_SRG);
+		final JarMapping composed = Mappings.compose(mapping, mixinmapping);
 		// Prepare Classpath
-		List<URL> url = new ArrayList<>();
-		url.add(MCFORGE.toURL());
-		for (File lib : LIBS_DIR.listFiles())  url.add(lib.toURL());
-		// Obfuscate
-		URLClassLoader classLoader = null;
-		try (Jar input = Jar.init(JAR_FILE)) {
-			// Enable Inheritance Providers
-			JointProvider inheritanceProviders = new JointProvider();
-			inheritanceProviders.add(new JarProvider(input));
-			inheritanceProviders.add(new ClassLoaderProvider(classLoader = new URLClassLoader(url.toArray(new URL[url.size()]))));
-			mapping.setFallbackInheritanceProvider(inheritanceProviders);
-			mixinmapping.setFallbackInheritanceProvider(inheritanceProviders);
+		final List<File> classpath = new ArrayList<>();
+		classpath.add(MCFORGE);
+		final File[] libraries = LIBS_DIR.listFiles();
+		if (libraries != null) classpath.addAll(Arrays.asList(libraries));
+		// Index the inheritance of the classpath once, instead of opening the libraries during every export
+		final InheritanceIndex inheritance = InheritanceIndex.open(INHERITANCE_INDEX, classpath);
+		
+		try (ExportJar jar = new ExportJar()) {
+			/* Collect the jar */
+			// Start off the mixin file
+			jar.addArchive(MIXIN_FILE);
+			final byte[] manifest = jar.read(MANIFEST);
+			// Add Libs to Jar
+			final File[] libs = USER_LIBS_FILE.listFiles();
+			if (libs != null) for (File lib : libs) jar.addArchive(lib);
+			// Add Files to Jar
+			jar.addFolder(BIN_DIR);
+			jar.remove("searge.srg");
+			// Create Manifest for Jar
+			final ByteArrayOutputStream b = new ByteArrayOutputStream();
+			b.write("FMLCorePluginContainsFMLMod: true\r\nMixinConfigs: mixin.json\r\nTweakClass: org.spongepowered.asm.launch.MixinTweaker\r\nForceLoadAsMod: true\r\n".getBytes(StandardCharsets.UTF_8));
+			if (manifest != null) b.write(manifest);
+			jar.add(MANIFEST, b.toByteArray());
 			
-			// remap jar
-			remapper.remapJar(input, JAR_FILE_REOBF);
+			/* Obfuscate the Jar */
+			// Write the jar before and between the remappings only when asked to
+			if (intermediates) {
+				write(null, null, inheritance, threads, jar, JAR_FILE);
+				write(mapping, RemapCache.hash(MAPPINGS_FILE), inheritance, threads, jar, JAR_FILE_REOBF);
+			}
+			write(composed, RemapCache.hash(MAPPINGS_FILE, SEARGE_SRG), inheritance, threads, jar, JAR_FILE_REOBF_MIXIN);
 		}
-		try (Jar input = Jar.init(JAR_FILE_REOBF)) {
-			// Enable Inheritance Providers
-			JointProvider inheritanceProviders = new JointProvider();
-			inheritanceProviders.add(new JarProvider(input));
-			inheritanceProviders.add(new ClassLoaderProvider(classLoader = new URLClassLoader(url.toArray(new URL[url.size()]))));
-			mapping.setFallbackInheritanceProvider(inheritanceProviders);
-			mixinmapping.setFallbackInheritanceProvider(inheritanceProviders);
-			
-			// remap jar
-			mixinremapper.remapJar(input, JAR_FILE_REOBF_MIXIN);
+	}
+	
+	/**
+	 * Remaps all classes of the jar in parallel and writes the jar into a file, reusing the classes that did not change since the last export
+	 * @param mapping Mappings to apply or null to write all classes unchanged
+	 * @param mappingHash Hash of the mapping files or null to remap every class
+	 * @param inheritance Inheritance of all classes on the classpath
+	 * @param threads Amount of threads remapping classes
+	 * @param jar Jar to write
+	 * @param out File to write
+	 * @throws IOException Unable to read an entry or write the file
+	 */
+	private static void write(JarMapping mapping, String mappingHash, InheritanceProvider inheritance, int threads, ExportJar jar, File out) throws IOException {
+		final RemapCache cache = mappingHash == null ? null : new RemapCache(new File(REMAP_CACHE_DIR, out.getName() + ".cache"), mappingHash);
+		final ParallelRemapper remapper = new ParallelRemapper(mapping, inheritance, threads, cache);
+		try {
+			remapper.write(jar, out);
+		} finally {
+			remapper.shutdown();
 		}
-		if (classLoader != null) classLoader.close();
 	}
 	
 }
@@ -0,0 +1,347 @@
+package de.pfannekuchen.forgenogradleapi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import net.md_5.specialsource.provider.InheritanceProvider;
+import net.md_5.specialsource.repo.ClassRepo;
+
+/**
+ * Superclass, interfaces and member signatures of every class on the classpath of the export, built once per set of libraries
+ * into a memory mapped file, so remapping never has to open a library again. The index is rebuilt as soon as a library is added,
+ * removed or changed
+ *
+ * Layout: magic, format, fingerprint of the libraries, size of the hash table, hash table of record offsets, records.
+ * A record holds the name, superclass, interfaces, fields and methods of a class
+ * @author agent
+ */
+public class InheritanceIndex implements InheritanceProvider, ClassRepo {
+	
+	/**
+	 * First bytes of an index
+	 */
+	private static final int MAGIC = 0x464E4749;
+	
+	/**
+	 * Version of the layout, bumped whenever it changes
+	 */
+	private static final int FORMAT = 1;
+	
+	/**
+	 * Length of the fingerprint of the libraries
+	 */
+	private static final int FINGERPRINT = 20;
+	
+	/**
+	 * Offset of the hash table
+	 */
+	private static final int TABLE = 4 + 4 + FINGERPRINT + 4;
+	
+	/**
+	 * Mapped index, only read with absolute reads, so it can be shared by all threads
+	 */
+	private final ByteBuffer buffer;
+	
+	/**
+	 * Size of the hash table, a power of two
+	 */
+	private final int size;
+	
+	private InheritanceIndex(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.size = buffer.getInt(TABLE - 4);
+	}
+	
+	/**
+	 * Maps the index of the libraries, rebuilding it first if the libraries have changed since it was built
+	 * @param file File storing the index
+	 * @param libraries Libraries in classpath order, the first class of a name wins
+	 * @return Mapped index
+	 * @throws IOException Unable to read a library or to write the index
+	 */
+	public static InheritanceIndex open(File file, List<File> libraries) throws IOException {
+		final byte[] fingerprint = fingerprint(libraries);
+		// Only map an index that is up to date, a mapped file cannot be replaced on windows
+		if (!isUpToDate(file, fingerprint)) {
+			System.out.println(String.format("[InheritanceIndex] Indexing %d libraries...", libraries.size()));
+			final long start = System.nanoTime();
+			final int classes = build(file, libraries, fingerprint);
+			System.out.println(String.format("[InheritanceIndex] Indexed %d classes in %d ms", classes, (System.nanoTime() - start) / 1000000));
+		}
+		return new InheritanceIndex(map(file));
+	}
+	
+	/**
+	 * Returns the parents exactly like a ClassLoaderProvider over the libraries would, so the remapped classes stay the same
+	 */
+	@Override
+	public Collection<String> getParents(String className) {
+		final int record = find(className);
+		if (record == -1) return null;
+		final Collection<String> parents = new HashSet<>();
+		int position = skip(record);
+		final String superName = string(position);
+		position = skip(position);
+		final int interfaces = buffer.getShort(position) & 0xFFFF;
+		position += 2;
+		for (int i = 0; i < interfaces; i++) {
+			parents.add(string(position));
+			position = skip(position);
+		}
+		if (!superName.isEmpty()) parents.add(superName);
+		return parents;
+	}
+	
+	/**
+	 * Creates a class without code, holding only the superclass, the interfaces and the member signatures
+	 */
+	@Override
+	public ClassNode findClass(String internalName) {
+		final int record = find(internalName);
+		if (record == -1) return null;
+		final ClassNode node = new ClassNode();
+		node.name = internalName;
+		int position = skip(record);
+		final String superName = string(position);
+		node.superName = superName.isEmpty() ? null : superName;
+		position = skip(position);
+		final int interfaces = buffer.getShort(position) & 0xFFFF;
+		position += 2;
+		for (int i = 0; i < interfaces; i++) {
+			node.interfaces.add(string(position));
+			position = skip(position);
+		}
+		final int fields = buffer.getShort(position) & 0xFFFF;
+		position += 2;
+		for (int i = 0; i < fields; i++) {
+			final String name = string(position);
+			position = skip(position);
+			final String desc = string(position);
+			position = skip(position);
+			node.fields.add(new FieldNode(buffer.getInt(position), name, desc, null, null));
+			position += 4;
+		}
+		final int methods = buffer.getShort(position) & 0xFFFF;
+		position += 2;
+		for (int i = 0; i < methods; i++) {
+			final String name = string(position);
+			position = skip(position);
+			final String desc = string(position);
+			position = skip(position);
+			node.methods.add(new MethodNode(buffer.getInt(position), name, desc, null, null));
+			position += 4;
+		}
+		return node;
+	}
+	
+	/**
+	 * Looks up the record of a class in the hash table
+	 * @param name Name of the class
+	 * @return Offset of the record or -1 if the class is not indexed
+	 */
+	private int find(String name) {
+		final byte[] key = name.getBytes(StandardCharsets.UTF_8);
+		for (int slot = hash(key) & (size - 1); ; slot = (slot + 1) & (size - 1)) {
+			final int record = buffer.getInt(TABLE + slot * 4);
+			if (record == 0) return -1;
+			if (equals(record, key)) return record;
+		}
+	}
+	
+	/**
+	 * Compares a string of the index with a key
+	 * @param position Offset of the string
+	 * @param key Encoded key
+	 * @return Whether both are equal
+	 */
+	private boolean equals(int position, byte[] key) {
+		if ((buffer.getShort(position) & 0xFFFF) != key.length) return false;
+		for (int i = 0; i < key.length; i++) if (buffer.get(position + 2 + i) != key[i]) return false;
+		return true;
+	}
+	
+	/**
+	 * Reads a string of the index
+	 * @param position Offset of the string
+	 * @return Decoded string
+	 */
+	private String string(int position) {
+		final byte[] bytes = new byte[buffer.getShort(position) & 0xFFFF];
+		for (int i = 0; i < bytes.length; i++) bytes[i] = buffer.get(position + 2 + i);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Skips a string of the index
+	 * @param position Offset of the string
+	 * @return Offset after the string
+	 */
+	private int skip(int position) {
+		return position + 2 + (buffer.getShort(position) & 0xFFFF);
+	}
+	
+	/**
+	 * Checks whether an index has been built from the same libraries
+	 * @param file File storing the index
+	 * @param fingerprint Fingerprint of the current libraries
+	 * @return Whether the index is up to date
+	 */
+	private static boolean isUpToDate(File file, byte[] fingerprint) {
+		if (!file.isFile()) return false;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT) return false;
+			final byte[] recorded = new byte[FINGERPRINT];
+			in.readFully(recorded);
+			final int size = in.readInt();
+			return Arrays.equals(recorded, fingerprint) && size > 0 && (size & (size - 1)) == 0 && file.length() >= TABLE + (long) size * 4;
+		} catch (IOException e) {
+			// a broken index only means that it is built again
+			return false;
+		}
+	}
+	
+	/**
+	 * Builds the index of all classes of the libraries
+	 * @param file File to write the index to
+	 * @param libraries Libraries in classpath order
+	 * @param fingerprint Fingerprint of the libraries
+	 * @return Amount of indexed classes
+	 * @throws IOException Unable to read a library or to write the index
+	 */
+	private static int build(File file, List<File> libraries, byte[] fingerprint) throws IOException {
+		// Collect the first class of every name, like a class loader would find it
+		final Map<String, ClassNode> classes = new LinkedHashMap<>();
+		for (File library : libraries) {
+			if (!library.isFile()) continue;
+			try (ZipFile zip = new ZipFile(library)) {
+				final Enumeration<? extends ZipEntry> entries = zip.entries();
+				while (entries.hasMoreElements()) {
+					final ZipEntry entry = entries.nextElement();
+					final String name = entry.getName();
+					if (!name.endsWith(".class") || classes.containsKey(name.substring(0, name.length() - 6))) continue;
+					final ClassNode node = new ClassNode();
+					try (InputStream in = zip.getInputStream(entry)) {
+						new ClassReader(in).accept(node, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+					} catch (RuntimeException e) {
+						// skip classes asm cannot read, the class loader would not find their parents either
+						continue;
+					}
+					classes.put(name.substring(0, name.length() - 6), node);
+				}
+			}
+		}
+		
+		// Write the records, then the table pointing at them
+		int size = 16;
+		while (size < classes.size() * 2) size <<= 1;
+		final int[] table = new int[size];
+		final ByteArrayOutputStream records = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(records);
+		final int base = TABLE + size * 4;
+		for (Map.Entry<String, ClassNode> entry : classes.entrySet()) {
+			final byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+			int slot = hash(key) & (size - 1);
+			while (table[slot] != 0) slot = (slot + 1) & (size - 1);
+			table[slot] = base + out.size();
+			final ClassNode node = entry.getValue();
+			write(out, key);
+			write(out, node.superName == null ? new byte[0] : node.superName.getBytes(StandardCharsets.UTF_8));
+			out.writeShort(node.interfaces.size());
+			for (String name : node.interfaces) write(out, name.getBytes(StandardCharsets.UTF_8));
+			out.writeShort(node.fields.size());
+			for (FieldNode field : node.fields) {
+				write(out, field.name.getBytes(StandardCharsets.UTF_8));
+				write(out, field.desc.getBytes(StandardCharsets.UTF_8));
+				out.writeInt(field.access);
+			}
+			out.writeShort(node.methods.size());
+			for (MethodNode method : node.methods) {
+				write(out, method.name.getBytes(StandardCharsets.UTF_8));
+				write(out, method.desc.getBytes(StandardCharsets.UTF_8));
+				out.writeInt(method.access);
+			}
+		}
+		
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		final File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+		try (DataOutputStream index = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp.toPath())))) {
+			index.writeInt(MAGIC);
+			index.writeInt(FORMAT);
+			index.write(fingerprint);
+			index.writeInt(size);
+			for (int offset : table) index.writeInt(offset);
+			records.writeTo(index);
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return classes.size();
+	}
+	
+	private static void write(DataOutputStream out, byte[] string) throws IOException {
+		out.writeShort(string.length);
+		out.write(string);
+	}
+	
+	/**
+	 * Hashes an encoded class name for the hash table
+	 * @param key Encoded name
+	 * @return Hash
+	 */
+	private static int hash(byte[] key) {
+		int hash = Arrays.hashCode(key);
+		// spread the bits, names of one package only differ at the end
+		return hash ^ (hash >>> 16);
+	}
+	
+	/**
+	 * Fingerprints a set of libraries by their paths, sizes and modification times
+	 * @param libraries Libraries in classpath order
+	 * @return SHA-1 of the libraries
+	 */
+	private static byte[] fingerprint(List<File> libraries) {
+		final MessageDigest digest = RemapCache.sha1();
+		for (File library : libraries) digest.update((library.getAbsolutePath() + "|" + library.length() + "|" + library.lastModified() + "\n").getBytes(StandardCharsets.UTF_8));
+		return digest.digest();
+	}
+	
+	/**
+	 * Maps a file into memory
+	 * @param file File to map
+	 * @return Mapped file
+	 * @throws IOException Unable to map the file
+	 */
+	private static MappedByteBuffer map(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			// the mapping stays valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+}
@@ -0,0 +1,126 @@
+package de.pfannekuchen.forgenogradleapi;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.objectweb.asm.commons.Remapper;
+
+import net.md_5.specialsource.JarMapping;
+import net.md_5.specialsource.JarRemapper;
+
+/**
+ * Loads and composes srg mappings, so several remappings can be applied in a single pass
+ * @author agent
+ */
+public class Mappings {
+	
+	/**
+	 * Loads a srg file
+	 * @param srg Mappings to load
+	 * @return Loaded mappings
+	 * @throws IOException Unable to read the mappings
+	 */
+	public static JarMapping load(File srg) throws IOException {
+		final JarMapping mapping = new JarMapping();
+		try (BufferedReader reader = Files.newBufferedReader(srg.toPath())) {
+			mapping.loadMappings(reader, null, null, false);
+		}
+		return mapping;
+	}
+	
+	/**
+	 * Composes two mappings into one that maps every name like the first mapping followed by the second.
+	 * Members are matched by their declaring class, renamed members are matched by name, which is unique for srg names
+	 * @param first Mapping applied first
+	 * @param second Mapping applied to the output of the first one
+	 * @return Composed mapping
+	 */
+	public static JarMapping compose(JarMapping first, JarMapping second) {
+		final JarRemapper firstRemapper = new JarRemapper(null, first);
+		final JarRemapper secondRemapper = new JarRemapper(null, second);
+		final JarMapping composed = new JarMapping();
+		
+		// Packages of the first mapping moved by the second one, then the remaining packages of the second one
+		for (Entry<String, String> entry : first.packages.entrySet()) composed.packages.put(entry.getKey(), mapPackage(entry.getValue(), second));
+		for (Entry<String, String> entry : second.packages.entrySet()) composed.packages.putIfAbsent(entry.getKey(), entry.getValue());
+		
+		// Classes: every class renamed by the first mapping, then the classes only the second one renames
+		final Map<String, String> inverse = new HashMap<>();
+		for (Entry<String, String> entry : first.classes.entrySet()) {
+			composed.classes.put(entry.getKey(), secondRemapper.map(entry.getValue()));
+			inverse.put(entry.getValue(), entry.getKey());
+		}
+		for (Entry<String, String> entry : second.classes.entrySet())
+			if (!inverse.containsKey(entry.getKey())) composed.classes.putIfAbsent(entry.getKey(), entry.getValue());
+		final Remapper unmap = new Remapper() {
+			@Override
+			public String map(String internalName) {
+				return inverse.getOrDefault(internalName, internalName);
+			}
+		};
+		
+		// Fields and methods
+		compose(first.fields, second.fields, composed.fields, firstRemapper, unmap, false);
+		compose(first.methods, second.methods, composed.methods, firstRemapper, unmap, true);
+		return composed;
+	}
+	
+	/**
+	 * Composes the field or method mappings
+	 * @param first Members renamed by the first mapping, keyed by "owner/name" or "owner/name desc"
+	 * @param second Members renamed by the second mapping
+	 * @param composed Composed members to fill
+	 * @param firstRemapper Remapper of the first mapping
+	 * @param unmap Remapper reverting the class names of the first mapping
+	 * @param methods Whether the keys contain a method descriptor
+	 */
+	private static void compose(Map<String, String> first, Map<String, String> second, Map<String, String> composed, JarRemapper firstRemapper, Remapper unmap, boolean methods) {
+		// Members renamed by the first mapping and maybe again by the second one
+		final Map<String, String> renamedFrom = new HashMap<>();
+		for (Entry<String, String> entry : first.entrySet()) {
+			final String[] key = split(entry.getKey(), methods);
+			final String renamed = entry.getValue();
+			final String secondKey = firstRemapper.map(key[0]) + "/" + renamed + (methods ? " " + firstRemapper.mapMethodDesc(key[2]) : "");
+			composed.put(entry.getKey(), second.getOrDefault(secondKey, renamed));
+			// remember which name a renamed member had before, null if ambiguous
+			if (!renamedFrom.containsKey(renamed)) renamedFrom.put(renamed, key[1]);
+			else if (!key[1].equals(renamedFrom.get(renamed))) renamedFrom.put(renamed, null);
+		}
+		// Members only the second mapping renames, e.g. members of subclasses or members the first mapping kept
+		for (Entry<String, String> entry : second.entrySet()) {
+			final String[] key = split(entry.getKey(), methods);
+			final String name = renamedFrom.containsKey(key[1]) ? renamedFrom.get(key[1]) : key[1];
+			if (name == null) continue;
+			composed.putIfAbsent(unmap.map(key[0]) + "/" + name + (methods ? " " + unmap.mapMethodDesc(key[2]) : ""), entry.getValue());
+		}
+	}
+	
+	/**
+	 * Splits a member key
+	 * @param key Key as "owner/name" or "owner/name desc"
+	 * @param methods Whether the key contains a method descriptor
+	 * @return Owner, name and descriptor
+	 */
+	private static String[] split(String key, boolean methods) {
+		final int space = methods ? key.indexOf(' ') : key.length();
+		final int slash = key.lastIndexOf('/', space);
+		return new String[] { key.substring(0, slash), key.substring(slash + 1, space), methods ? key.substring(space + 1) : null };
+	}
+	
+	/**
+	 * Moves a package with the package mappings
+	 * @param name Package as "a/b/"
+	 * @param mapping Mapping to apply
+	 * @return Mapped package
+	 */
+	private static String mapPackage(String name, JarMapping mapping) {
+		final String mapped = mapping.packages.get(name);
+		return mapped != null ? mapped : name;
+	}
+
+}
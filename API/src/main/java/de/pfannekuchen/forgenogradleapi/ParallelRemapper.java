@@ -0,0 +1,390 @@
+package de.pfannekuchen.forgenogradleapi;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import net.md_5.specialsource.InheritanceMap;
+import net.md_5.specialsource.JarMapping;
+import net.md_5.specialsource.JarRemapper;
+import net.md_5.specialsource.provider.InheritanceProvider;
+import net.md_5.specialsource.repo.ClassRepo;
+
+/**
+ * Remaps all classes of a jar on a fork-join pool. SpecialSource caches inheritance lazily and is not thread safe,
+ * so the inheritance of every class any class refers to is resolved up front and shared read-only by all workers
+ * @author agent
+ */
+public class ParallelRemapper {
+	
+	/**
+	 * Amount of classes below which a task is no longer split
+	 */
+	private static final int THRESHOLD = 16;
+	
+	/**
+	 * Tag of a class in the constant pool
+	 */
+	private static final int CONSTANT_CLASS = 7;
+	
+	/**
+	 * Tag of an invokedynamic call site in the constant pool
+	 */
+	private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+	
+	/**
+	 * Name of the manifest
+	 */
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+	
+	/**
+	 * Modification time of every entry, fixed like the stable mode of SpecialSource's remapJar, so the same classes always produce the same jar
+	 */
+	private static final long ENTRY_TIME = 0L;
+	
+	/**
+	 * Mappings to apply or null to copy all classes unchanged
+	 */
+	private final JarMapping mapping;
+	
+	/**
+	 * Inheritance of the classes outside of the jar
+	 */
+	private final InheritanceProvider inheritance;
+	
+	/**
+	 * Classes remapped by the last export or null to remap every class
+	 */
+	private final RemapCache cache;
+	
+	/**
+	 * Pool remapping the classes
+	 */
+	private final ForkJoinPool pool;
+	
+	/**
+	 * Creates a remapper without a cache
+	 * @param mapping Mappings to apply or null to copy all classes unchanged
+	 * @param inheritance Inheritance of the classes outside of the jar, queried only before remapping
+	 * @param parallelism Amount of threads remapping classes
+	 */
+	public ParallelRemapper(JarMapping mapping, InheritanceProvider inheritance, int parallelism) {
+		this(mapping, inheritance, parallelism, null);
+	}
+	
+	/**
+	 * Creates a remapper
+	 * @param mapping Mappings to apply or null to copy all classes unchanged
+	 * @param inheritance Inheritance of the classes outside of the jar, queried only before remapping
+	 * @param parallelism Amount of threads remapping classes
+	 * @param cache Classes remapped by the last export with the same mappings or null to remap every class
+	 */
+	public ParallelRemapper(JarMapping mapping, InheritanceProvider inheritance, int parallelism, RemapCache cache) {
+		this.mapping = mapping;
+		this.inheritance = inheritance;
+		this.cache = cache;
+		this.pool = new ForkJoinPool(Math.max(1, parallelism));
+	}
+	
+	/**
+	 * Remaps all entries of the jar and writes them into a file, in the same order and with the same content as a serial remap
+	 * @param jar Jar to write
+	 * @param out File to write
+	 * @throws IOException Unable to read an entry or write the file
+	 */
+	public void write(ExportJar jar, File out) throws IOException {
+		System.out.println("Writing " + out.getName() + "...");
+		
+		// Read all entries, dropping signatures that break on remapped classes
+		final List<String> names = new ArrayList<>();
+		for (String name : jar.getNames()) {
+			if (MANIFEST.equals(name) || (mapping != null && (name.endsWith(".SF") || name.endsWith(".DSA")))) continue;
+			names.add(name);
+		}
+		final String[] outNames = names.toArray(new String[0]);
+		final byte[][] data = new byte[outNames.length][];
+		for (int i = 0; i < outNames.length; i++) data[i] = jar.read(outNames[i]);
+		
+		if (mapping != null) {
+			// Resolve the inheritance of everything the classes refer to, then remap without touching the providers again
+			final JarRemapper remapper = new JarRemapper(null, mapping);
+			final String[][] references = new String[outNames.length][];
+			final InheritanceMap map = resolve(jar, outNames, data, references);
+			mapping.setInheritanceMap(map);
+			mapping.setFallbackInheritanceProvider(null);
+			// A cached class can only be reused if nothing it refers to has changed either
+			Map<String, byte[]> signatures = null;
+			if (cache != null) {
+				cache.load();
+				signatures = signatures(jar, map, references);
+			}
+			final long start = System.nanoTime();
+			final Remap task = new Remap(remapper, cache, signatures, references, jar, outNames, data, 0, outNames.length);
+			pool.invoke(task);
+			System.out.println(String.format("[ParallelRemapper] Remapped %d classes, %d of them from the cache, in %d ms", task.classes, task.cached, (System.nanoTime() - start) / 1000000));
+		}
+		
+		try (JarOutputStream stream = new JarOutputStream(new BufferedOutputStream(Files.newOutputStream(out.toPath())))) {
+			// The manifest goes first, so it can be found by a JarInputStream
+			final byte[] manifest = jar.read(MANIFEST);
+			if (manifest != null) {
+				stream.putNextEntry(entry(MANIFEST));
+				stream.write(manifest);
+			}
+			for (int i = 0; i < outNames.length; i++) {
+				stream.putNextEntry(entry(outNames[i]));
+				stream.write(data[i]);
+			}
+		}
+		if (mapping != null && cache != null) cache.save();
+	}
+	
+	/**
+	 * Creates an entry with the fixed modification time
+	 * @param name Name of the entry
+	 * @return Entry to write
+	 */
+	private static JarEntry entry(String name) {
+		final JarEntry entry = new JarEntry(name);
+		entry.setTime(ENTRY_TIME);
+		return entry;
+	}
+	
+	/**
+	 * Shuts the pool down
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+	
+	/**
+	 * Resolves the inheritance of every class referenced by the classes of the jar, including all superclasses and interfaces
+	 * @param jar Jar providing the inheritance of its own classes
+	 * @param names Names of the entries
+	 * @param data Contents of the entries
+	 * @param references Filled with the classes referenced by every class
+	 * @return Complete inheritance map
+	 */
+	private InheritanceMap resolve(ExportJar jar, String[] names, byte[][] data, String[][] references) {
+		// Every class in the constant pool of a class may be the owner of a member that is looked up
+		run(() -> IntStream.range(0, names.length).parallel().filter(i -> names[i].endsWith(".class")).forEach(i -> references[i] = references(data[i])));
+		final Set<String> referenced = new HashSet<>();
+		for (String[] classes : references) if (classes != null) referenced.addAll(Arrays.asList(classes));
+		// Walk up the hierarchy, one level at a time
+		final InheritanceMap map = new InheritanceMap();
+		Set<String> level = referenced;
+		final Set<String> seen = new HashSet<>(level);
+		while (!level.isEmpty()) {
+			final List<String> classes = new ArrayList<>(level);
+			final List<Collection<String>> parents = run(() -> classes.parallelStream().map(name -> parents(jar, name)).collect(Collectors.toList()));
+			level = new HashSet<>();
+			for (int i = 0; i < classes.size(); i++) {
+				map.setParents(classes.get(i), parents.get(i));
+				if (parents.get(i) == null) continue;
+				for (String parent : parents.get(i)) if (seen.add(parent)) level.add(parent);
+			}
+		}
+		return map;
+	}
+	
+	/**
+	 * Hashes everything the remapper looks at when a class is referenced: its parents and their signatures, and the members of the class
+	 * @param jar Jar providing the members of its own classes, the classpath provides the others if it knows them
+	 * @param map Resolved inheritance
+	 * @param references Classes referenced by every class
+	 * @return Signature of every referenced class
+	 */
+	private Map<String, byte[]> signatures(ExportJar jar, InheritanceMap map, String[][] references) {
+		final Map<String, byte[]> signatures = new HashMap<>();
+		for (String[] classes : references) if (classes != null) for (String name : classes) signature(jar, map, name, signatures);
+		return signatures;
+	}
+	
+	/**
+	 * Hashes a class and its parents
+	 * @param jar Jar providing the members of its own classes, the classpath provides the others if it knows them
+	 * @param map Resolved inheritance
+	 * @param name Name of the class
+	 * @param signatures Signatures of the classes hashed so far
+	 * @return Signature of the class
+	 */
+	private byte[] signature(ExportJar jar, InheritanceMap map, String name, Map<String, byte[]> signatures) {
+		final byte[] known = signatures.get(name);
+		if (known != null) return known;
+		// guard against broken hierarchies referring to themselves
+		signatures.put(name, new byte[0]);
+		final MessageDigest digest = RemapCache.sha1();
+		digest.update(name.getBytes(StandardCharsets.UTF_8));
+		final Collection<String> parents = map.getParents(name);
+		// unknown classes differ from classes without parents
+		digest.update(parents == null ? (byte) 1 : (byte) 0);
+		ClassNode node = jar.findClass(name);
+		if (node == null && inheritance instanceof ClassRepo) node = ((ClassRepo) inheritance).findClass(name);
+		if (node != null) {
+			for (FieldNode field : node.fields) digest.update(("\nF " + field.name + " " + field.desc + " " + field.access).getBytes(StandardCharsets.UTF_8));
+			for (MethodNode method : node.methods) digest.update(("\nM " + method.name + " " + method.desc + " " + method.access).getBytes(StandardCharsets.UTF_8));
+		}
+		if (parents != null) for (String parent : parents) digest.update(signature(jar, map, parent, signatures));
+		final byte[] signature = digest.digest();
+		signatures.put(name, signature);
+		return signature;
+	}
+	
+	/**
+	 * Looks up the parents of a class like SpecialSource would, first in the jar, then on the classpath
+	 * @param jar Jar to look in first
+	 * @param name Name of the class
+	 * @return Parents or null if the class is unknown
+	 */
+	private Collection<String> parents(ExportJar jar, String name) {
+		final Collection<String> parents = jar.getParents(name);
+		if (parents != null || inheritance == null) return parents;
+		return inheritance.getParents(name);
+	}
+	
+	/**
+	 * Collects all classes in the constant pool of a class, including the functional interfaces of lambdas, which are only named in a descriptor
+	 * @param bytes Class file
+	 * @return Referenced classes in order of the constant pool
+	 */
+	private static String[] references(byte[] bytes) {
+		final ClassReader reader = new ClassReader(bytes);
+		final char[] buffer = new char[reader.getMaxStringLength()];
+		final Set<String> out = new LinkedHashSet<>();
+		for (int i = 1; i < reader.getItemCount(); i++) {
+			final int item = reader.getItem(i);
+			if (item == 0) continue;
+			final int tag = reader.readByte(item - 1);
+			if (tag == CONSTANT_CLASS) {
+				final String name = reader.readUTF8(item, buffer);
+				if (!name.startsWith("[")) out.add(name);
+			} else if (tag == CONSTANT_INVOKE_DYNAMIC) {
+				// the remapper looks up the implemented method in the returned interface
+				final Type type = Type.getReturnType(reader.readUTF8(reader.getItem(reader.readUnsignedShort(item + 2)) + 2, buffer));
+				if (type.getSort() == Type.OBJECT) out.add(type.getInternalName());
+			}
+		}
+		return out.toArray(new String[0]);
+	}
+	
+	/**
+	 * Runs a parallel stream on the pool instead of the common pool
+	 * @param task Task to run
+	 * @return Result of the task
+	 */
+	private <T> T run(Callable<T> task) {
+		try {
+			return pool.submit(task).get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IllegalStateException("Unable to resolve the inheritance", e);
+		}
+	}
+	
+	/**
+	 * Runs a parallel stream on the pool instead of the common pool
+	 * @param task Task to run
+	 */
+	private void run(Runnable task) {
+		run(() -> {
+			task.run();
+			return null;
+		});
+	}
+	
+	/**
+	 * Remaps a range of entries, splitting it in halves until it is small enough
+	 */
+	private static class Remap extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final JarRemapper remapper;
+		private final RemapCache cache;
+		private final Map<String, byte[]> signatures;
+		private final String[][] references;
+		private final ExportJar jar;
+		private final String[] names;
+		private final byte[][] data;
+		private final int from, to;
+		
+		/**
+		 * Amount of classes and amount of classes taken from the cache, once done
+		 */
+		int classes, cached;
+		
+		Remap(JarRemapper remapper, RemapCache cache, Map<String, byte[]> signatures, String[][] references, ExportJar jar, String[] names, byte[][] data, int from, int to) {
+			this.remapper = remapper;
+			this.cache = cache;
+			this.signatures = signatures;
+			this.references = references;
+			this.jar = jar;
+			this.names = names;
+			this.data = data;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if (to - from > THRESHOLD) {
+				final int middle = (from + to) >>> 1;
+				final Remap left = new Remap(remapper, cache, signatures, references, jar, names, data, from, middle);
+				final Remap right = new Remap(remapper, cache, signatures, references, jar, names, data, middle, to);
+				invokeAll(left, right);
+				classes = left.classes + right.classes;
+				cached = left.cached + right.cached;
+				return;
+			}
+			final MessageDigest digest = cache == null ? null : RemapCache.sha1();
+			for (int i = from; i < to; i++) {
+				if (!names[i].endsWith(".class")) continue;
+				classes++;
+				names[i] = remapper.map(names[i].substring(0, names[i].length() - 6)) + ".class";
+				if (cache == null) {
+					data[i] = remapper.remapClassFile(data[i], jar);
+					continue;
+				}
+				// Only classes that changed since the last export go through the remapper
+				digest.update(data[i]);
+				for (String reference : references[i]) digest.update(signatures.get(reference));
+				final String key = RemapCache.toHex(digest.digest());
+				final byte[] remapped = cache.get(key);
+				if (remapped != null) {
+					data[i] = remapped;
+					cached++;
+					continue;
+				}
+				data[i] = remapper.remapClassFile(data[i], jar);
+				cache.put(key, data[i]);
+			}
+		}
+	
+	}
+
+}
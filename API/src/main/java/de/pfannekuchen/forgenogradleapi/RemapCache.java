@@ -0,0 +1,172 @@
+package de.pfannekuchen.forgenogradleapi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remapped classes of the last export, keyed by the hash of the class before remapping and of everything it refers to.
+ * All entries are only valid for the mappings they were remapped with, so the whole cache is dropped once they change
+ * @author agent
+ */
+public class RemapCache {
+	
+	/**
+	 * Version of the file format, bumped whenever the format or the remapping changes
+	 */
+	private static final int FORMAT = 1;
+	
+	/**
+	 * File storing the cache
+	 */
+	private final File file;
+	
+	/**
+	 * Format of the file and hash of the mapping files, written first
+	 */
+	private final String context;
+	
+	/**
+	 * Remapped classes of the last export
+	 */
+	private Map<String, byte[]> recorded = Collections.emptyMap();
+	
+	/**
+	 * Remapped classes of the current export, the only ones written back
+	 */
+	private final Map<String, byte[]> pending = new ConcurrentHashMap<>();
+	
+	/**
+	 * Creates a cache, which is only read once the classes are remapped
+	 * @param file File storing the cache
+	 * @param mapping Hash of the mapping files
+	 */
+	public RemapCache(File file, String mapping) {
+		this.file = file;
+		this.context = FORMAT + ":" + mapping;
+	}
+	
+	/**
+	 * Loads the remapped classes of the last export, if it used the same mappings
+	 */
+	public void load() {
+		recorded = Collections.emptyMap();
+		pending.clear();
+		if (!file.exists()) return;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+			if (!context.equals(in.readUTF())) return;
+			final int count = in.readInt();
+			final Map<String, byte[]> classes = new HashMap<>(count * 2);
+			for (int i = 0; i < count; i++) {
+				final String key = in.readUTF();
+				final byte[] data = new byte[in.readInt()];
+				in.readFully(data);
+				classes.put(key, data);
+			}
+			recorded = classes;
+		} catch (IOException | RuntimeException e) {
+			// a broken cache only means that everything is remapped
+			System.out.println(String.format("[RemapCache] Ignoring broken cache %s: %s", file.getName(), e));
+		}
+	}
+	
+	/**
+	 * Looks up a remapped class and keeps it for the next export
+	 * @param key Hash of the class before remapping
+	 * @return Remapped class or null if it has to be remapped
+	 */
+	public byte[] get(String key) {
+		final byte[] data = recorded.get(key);
+		if (data != null) pending.put(key, data);
+		return data;
+	}
+	
+	/**
+	 * Stores a remapped class for the next export
+	 * @param key Hash of the class before remapping
+	 * @param data Remapped class
+	 */
+	public void put(String key, byte[] data) {
+		pending.put(key, data);
+	}
+	
+	/**
+	 * Writes all classes used by the current export, dropping the ones that are no longer needed
+	 * @throws IOException Unable to write the cache
+	 */
+	public void save() throws IOException {
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		final File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp.toPath())))) {
+			out.writeUTF(context);
+			out.writeInt(pending.size());
+			for (Entry<String, byte[]> entry : pending.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeInt(entry.getValue().length);
+				out.write(entry.getValue());
+			}
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Hashes the content of files
+	 * @param files Files to hash
+	 * @return Lowercase hex encoded hash
+	 * @throws IOException Unable to read a file
+	 */
+	public static String hash(File... files) throws IOException {
+		final MessageDigest digest = sha1();
+		final byte[] buffer = new byte[8192];
+		for (File file : files) {
+			try (InputStream in = Files.newInputStream(file.toPath())) {
+				int read;
+				while ((read = in.read(buffer)) != -1) digest.update(buffer, 0, read);
+			}
+			// separate the files, so moving a line from one to the other changes the hash
+			digest.update((byte) 0);
+		}
+		return toHex(digest.digest());
+	}
+	
+	/**
+	 * Creates a new SHA-1 digest
+	 * @return SHA-1 digest
+	 */
+	public static MessageDigest sha1() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			// every java installation is required to support SHA-1
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Encodes bytes as a lowercase hex string
+	 * @param bytes Bytes to encode
+	 * @return Hex string
+	 */
+	public static String toHex(byte[] bytes) {
+		final char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			hex[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+			hex[i * 2 + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+		}
+		return new String(hex);
+	}
+
+}
@@ -0,0 +1,45 @@
+package de.pfannekuchen.forgenogradle;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.gson.Gson;
+
+import de.pfannekuchen.forgenogradle.Utils.Os;
+import de.pfannekuchen.forgenogradle.gson.json.Library;
+import de.pfannekuchen.forgenogradle.gson.json.VersionJson;
+
+/**
+ * Filters large library lists by mojangs rule system
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DependencyBenchmark {
+
+	@Param({ "50", "1000", "10000" })
+	public int libraries;
+	
+	private List<Library> parsed;
+	
+	@Setup
+	public void setup() {
+		parsed = new Gson().fromJson(Fixtures.versionJson(libraries), VersionJson.class).libraries;
+	}
+	
+	@Benchmark
+	public List<Library> sortOutDependencies() {
+		return GameDownloader.sortOutDependencies(parsed, Os.LINUX);
+	}
+	
+}
@@ -0,0 +1,57 @@
+package de.pfannekuchen.forgenogradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Renders the .classpath of a workspace with many libraries
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EclipseBenchmark {
+
+	@Param({ "60", "500" })
+	public int libraries;
+	
+	private File root;
+	private WorkspaceProvisioner provisioner;
+	
+	@Setup
+	public void setup() throws IOException {
+		root = Fixtures.temp("eclipse");
+		final WorkspaceConfig config = new WorkspaceConfig(root);
+		config.librariesDir.mkdirs();
+		config.userLibrariesDir.mkdirs();
+		for (int i = 0; i < libraries; i++) {
+			// every tenth library carries natives, like lwjgl and jinput do
+			new File(config.librariesDir, (i % 10 == 0 ? "org.lwjgl.lwjgl-" : "org.example.library-") + i + ".jar").createNewFile();
+		}
+		new File(config.userLibrariesDir, "user-library.jar").createNewFile();
+		// rendering neither needs the metadata nor the network
+		provisioner = new WorkspaceProvisioner(config, null);
+	}
+	
+	@TearDown
+	public void teardown() {
+		Utils.deleteDirectory(root);
+	}
+	
+	@Benchmark
+	public String renderClasspath() {
+		return provisioner.renderClasspath();
+	}
+	
+}
@@ -0,0 +1,117 @@
+package de.pfannekuchen.forgenogradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import net.lingala.zip4j.ZipFile;
+
+/**
+ * Extracts archives and deletes wide folder trees, every invocation on a fresh copy of the fixture
+ * @author agent
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FilesystemBenchmark {
+
+	/**
+	 * A fresh copy of a zip inside of the folder it is extracted to
+	 */
+	@State(Scope.Thread)
+	public static class Archive {
+		
+		@Param({ "200", "5000" })
+		public int entries;
+		
+		private File root;
+		private File fixture;
+		private File zipDir;
+		
+		@Setup(Level.Trial)
+		public void createFixture() throws IOException {
+			root = Fixtures.temp("archive");
+			fixture = new File(root, "fixture.zip");
+			// about the size of class files and mappings
+			Fixtures.zip(fixture, entries, 4096);
+		}
+		
+		@Setup(Level.Invocation)
+		public void prepare() throws IOException {
+			zipDir = new File(root, "extract");
+			if (zipDir.exists()) Utils.deleteDirectory(zipDir);
+			zipDir.mkdirs();
+			Files.copy(fixture.toPath(), new File(zipDir, "archive.zip").toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		
+		@TearDown(Level.Trial)
+		public void deleteFixture() {
+			Utils.deleteDirectory(root);
+		}
+		
+	}
+	
+	/**
+	 * A fresh wide folder tree, shaped like the asset objects folder
+	 */
+	@State(Scope.Thread)
+	public static class Tree {
+		
+		@Param({ "200", "5000" })
+		public int files;
+		
+		private File root;
+		private File tree;
+		
+		@Setup(Level.Trial)
+		public void createRoot() throws IOException {
+			root = Fixtures.temp("tree");
+		}
+		
+		@Setup(Level.Invocation)
+		public void prepare() throws IOException {
+			tree = new File(root, "tree");
+			if (tree.exists()) Utils.deleteDirectory(tree);
+			Fixtures.tree(tree, 256, files / 256 + 1);
+		}
+		
+		@TearDown(Level.Trial)
+		public void deleteRoot() {
+			Utils.deleteDirectory(root);
+		}
+		
+	}
+	
+	@Benchmark
+	public void unzipFileAndDelete(Archive archive) {
+		Utils.unzipFileAndDelete(archive.zipDir, "archive.zip", "benchmark");
+	}
+	
+	/**
+	 * Baseline: the zip4j extraction used before ZipExtractor
+	 */
+	@Benchmark
+	public void unzipZip4j(Archive archive) throws IOException {
+		final File zip = new File(archive.zipDir, "archive.zip");
+		new ZipFile(zip).extractAll(archive.zipDir.getAbsolutePath());
+		zip.delete();
+	}
+	
+	@Benchmark
+	public void deleteDirectory(Tree tree) {
+		Utils.deleteDirectory(tree.tree);
+	}
+	
+}
@@ -0,0 +1,358 @@
+package de.pfannekuchen.forgenogradle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Generates local fixtures shaped like the real metadata and archives, so no benchmark ever touches the network
+ * @author agent
+ */
+public class Fixtures {
+
+	/**
+	 * Seed of all generated content, so every run sees the same fixtures
+	 */
+	private static final long SEED = 1122L;
+	
+	/**
+	 * Generates a version json with a mix of plain libraries, os restricted libraries and natives
+	 * @param libraries Amount of libraries
+	 * @return Version json
+	 */
+	public static String versionJson(int libraries) {
+		final Random random = new Random(SEED);
+		final JsonArray array = new JsonArray();
+		for (int i = 0; i < libraries; i++) {
+			final JsonObject library = new JsonObject();
+			library.addProperty("name", "org.example:library-" + i + ":1.0");
+			final JsonObject downloads = new JsonObject();
+			downloads.add("artifact", artifact("org/example/library-" + i + "/1.0/library-" + i + "-1.0.jar", random));
+			switch (i % 4) {
+				case 1:
+					// allowed everywhere but osx
+					library.add("rules", rules(new String[] { "allow", null }, new String[] { "disallow", "osx" }));
+					break;
+				case 2:
+					// only allowed on osx
+					library.add("rules", rules(new String[] { "allow", "osx" }));
+					break;
+				case 3:
+					// natives for every os
+					final JsonObject classifiers = new JsonObject();
+					for (String os : new String[] { "linux", "osx", "windows" }) 
+						classifiers.add("natives-" + os, artifact("org/example/library-" + i + "/1.0/library-" + i + "-1.0-natives-" + os + ".jar", random));
+					downloads.add("classifiers", classifiers);
+					final JsonObject natives = new JsonObject();
+					for (String os : new String[] { "linux", "osx", "windows" }) natives.addProperty(os, "natives-" + os);
+					library.add("natives", natives);
+					break;
+			}
+			library.add("downloads", downloads);
+			array.add(library);
+		}
+		final JsonObject assetIndex = new JsonObject();
+		assetIndex.addProperty("id", "1.12");
+		assetIndex.addProperty("url", "https://launchermeta.mojang.com/v1/packages/" + hash(random) + "/1.12.json");
+		final JsonObject json = new JsonObject();
+		json.addProperty("id", "1.12.2");
+		json.add("assetIndex", assetIndex);
+		json.add("libraries", array);
+		json.addProperty("mainClass", "net.minecraft.client.main.Main");
+		return json.toString();
+	}
+	
+	/**
+	 * Generates a forge json
+	 * @param libraries Amount of libraries
+	 * @return Forge json
+	 */
+	public static String forgeJson(int libraries) {
+		final Random random = new Random(SEED);
+		final JsonArray array = new JsonArray();
+		for (int i = 0; i < libraries; i++) {
+			final JsonObject library = new JsonObject();
+			library.addProperty("name", "net.example:forge-library-" + i + ":1.0");
+			final JsonObject downloads = new JsonObject();
+			downloads.add("artifact", artifact("net/example/forge-library-" + i + "/1.0/forge-library-" + i + "-1.0.jar", random));
+			library.add("downloads", downloads);
+			array.add(library);
+		}
+		final JsonObject json = new JsonObject();
+		json.addProperty("id", "1.12.2-forge");
+		json.addProperty("inheritsFrom", "1.12.2");
+		json.add("libraries", array);
+		return json.toString();
+	}
+	
+	/**
+	 * Generates an asset index in which every third name shares its object with another name, like the real index
+	 * @param objects Amount of names
+	 * @return Asset index json
+	 */
+	public static String assetIndex(int objects) {
+		final Random random = new Random(SEED);
+		final String[] hashes = new String[objects];
+		final JsonObject map = new JsonObject();
+		for (int i = 0; i < objects; i++) {
+			hashes[i] = i % 3 == 2 ? hashes[random.nextInt(i)] : hash(random);
+			final JsonObject object = new JsonObject();
+			object.addProperty("hash", hashes[i]);
+			object.addProperty("size", 1 + random.nextInt(1 << 20));
+			map.add("minecraft/sounds/example/object-" + i + ".ogg", object);
+		}
+		final JsonObject json = new JsonObject();
+		json.add("objects", map);
+		return json.toString();
+	}
+	
+	/**
+	 * Writes a zip with compressible entries spread over a few folders, plus a META-INF folder
+	 * @param zip File to write
+	 * @param entries Amount of entries
+	 * @param size Size of every entry
+	 * @throws IOException Unable to write the zip
+	 */
+	public static void zip(File zip, int entries, int size) throws IOException {
+		final Random random = new Random(SEED);
+		final byte[] content = new byte[size];
+		try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip.toPath()))) {
+			out.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+			out.write("Manifest-Version: 1.0\n".getBytes(StandardCharsets.UTF_8));
+			for (int i = 0; i < entries; i++) {
+				// text-like content compresses about as well as class files and srg mappings
+				for (int j = 0; j < size; j++) content[j] = (byte) ('a' + random.nextInt(8));
+				out.putNextEntry(new ZipEntry("folder-" + (i % 16) + "/entry-" + i + ".txt"));
+				out.write(content);
+			}
+		}
+	}
+	
+	/**
+	 * Creates a wide folder tree
+	 * @param root Root of the tree
+	 * @param folders Amount of folders
+	 * @param files Amount of files per folder
+	 * @throws IOException Unable to create the tree
+	 */
+	public static void tree(File root, int folders, int files) throws IOException {
+		final byte[] content = new byte[64];
+		for (int i = 0; i < folders; i++) {
+			final File folder = new File(root, String.format("%02x", i));
+			folder.mkdirs();
+			for (int j = 0; j < files; j++) Files.write(new File(folder, "file-" + j).toPath(), content);
+		}
+	}
+	
+	/**
+	 * Creates an empty temporary folder
+	 * @param name Prefix of the folder
+	 * @return Created folder
+	 * @throws IOException Unable to create the folder
+	 */
+	public static File temp(String name) throws IOException {
+		return Files.createTempDirectory("fng-" + name).toFile();
+	}
+	
+	/**
+	 * Writes a complete mirror, laid out as mirror/host/path, with every file a workspace downloads. Unlike the other fixtures all hashes match the content
+	 * @param mirror Root of the mirror
+	 * @param libraries Amount of game libraries, a quarter of them with linux natives
+	 * @param objects Amount of asset names, every third sharing its object with another name
+	 * @return Total size of all files in bytes
+	 * @throws IOException Unable to write the mirror
+	 */
+	public static long mirror(File mirror, int libraries, int objects) throws IOException {
+		final Random random = new Random(SEED);
+		long total = 0;
+		// Game libraries and natives
+		final JsonArray array = new JsonArray();
+		for (int i = 0; i < libraries; i++) {
+			final String path = "org/example/library-" + i + "/1.0/library-" + i + "-1.0.jar";
+			final byte[] jar = bytes(random, 64 * 1024 + random.nextInt(448 * 1024));
+			final JsonObject downloads = new JsonObject();
+			downloads.add("artifact", artifact(mirror, "https://libraries.minecraft.net/" + path, path, jar));
+			total += jar.length;
+			if (i % 4 == 3) {
+				final String nativesPath = "org/example/library-" + i + "/1.0/library-" + i + "-1.0-natives-linux.jar";
+				final byte[] natives = nativesJar(random, i);
+				final JsonObject classifiers = new JsonObject();
+				classifiers.add("natives-linux", artifact(mirror, "https://libraries.minecraft.net/" + nativesPath, nativesPath, natives));
+				downloads.add("classifiers", classifiers);
+				total += natives.length;
+			}
+			final JsonObject library = new JsonObject();
+			library.addProperty("name", "org.example:library-" + i + ":1.0");
+			if (i % 4 == 3) {
+				final JsonObject natives = new JsonObject();
+				natives.addProperty("linux", "natives-linux");
+				library.add("natives", natives);
+			}
+			library.add("downloads", downloads);
+			array.add(library);
+		}
+		// Forge libraries
+		final JsonArray forgeArray = new JsonArray();
+		for (int i = 0; i < libraries / 2; i++) {
+			final String path = "net/example/forge-library-" + i + "/1.0/forge-library-" + i + "-1.0.jar";
+			final byte[] jar = bytes(random, 16 * 1024 + random.nextInt(240 * 1024));
+			final JsonObject downloads = new JsonObject();
+			downloads.add("artifact", artifact(mirror, "https://maven.minecraftforge.net/" + path, path, jar));
+			final JsonObject library = new JsonObject();
+			library.addProperty("name", "net.example:forge-library-" + i + ":1.0");
+			library.add("downloads", downloads);
+			forgeArray.add(library);
+			total += jar.length;
+		}
+		// Asset objects and the asset index, on an immutable url like the real one
+		final JsonObject map = new JsonObject();
+		final String[] hashes = new String[objects];
+		final int[] sizes = new int[objects];
+		for (int i = 0; i < objects; i++) {
+			if (i % 3 == 2) {
+				final int j = random.nextInt(i);
+				hashes[i] = hashes[j];
+				sizes[i] = sizes[j];
+			} else {
+				final byte[] object = bytes(random, 1 + random.nextInt(random.nextInt(16) == 0 ? 1 << 20 : 16 * 1024));
+				hashes[i] = sha1(object);
+				sizes[i] = object.length;
+				write(mirror, "https://resources.download.minecraft.net/" + hashes[i].substring(0, 2) + "/" + hashes[i], object);
+				total += object.length;
+			}
+			final JsonObject object = new JsonObject();
+			object.addProperty("hash", hashes[i]);
+			object.addProperty("size", sizes[i]);
+			map.add("minecraft/sounds/example/object-" + i + ".ogg", object);
+		}
+		final JsonObject assets = new JsonObject();
+		assets.add("objects", map);
+		final byte[] index = assets.toString().getBytes(StandardCharsets.UTF_8);
+		final String indexUrl = "https://launchermeta.mojang.com/v1/packages/" + sha1(index) + "/1.12.json";
+		write(mirror, indexUrl, index);
+		// Version and forge json
+		final JsonObject assetIndex = new JsonObject();
+		assetIndex.addProperty("id", "1.12");
+		assetIndex.addProperty("sha1", sha1(index));
+		assetIndex.addProperty("size", index.length);
+		assetIndex.addProperty("url", indexUrl);
+		final JsonObject version = new JsonObject();
+		version.addProperty("id", WorkspaceConfig.VERSION);
+		version.add("assetIndex", assetIndex);
+		version.add("libraries", array);
+		version.addProperty("mainClass", "net.minecraft.client.main.Main");
+		final JsonObject forge = new JsonObject();
+		forge.addProperty("id", WorkspaceConfig.VERSION + "-forge");
+		forge.addProperty("inheritsFrom", WorkspaceConfig.VERSION);
+		forge.add("libraries", forgeArray);
+		total += write(mirror, GameMetadata.VERSION_URL, version.toString().getBytes(StandardCharsets.UTF_8));
+		total += write(mirror, GameMetadata.FORGE_URL, forge.toString().getBytes(StandardCharsets.UTF_8));
+		total += index.length;
+		// Forge, MCP and Mixin
+		total += write(mirror, "https://data.mgnet.work/forge/mc-forge-" + WorkspaceConfig.VERSION + ".jar", bytes(random, 8 << 20));
+		total += write(mirror, "https://data.mgnet.work/forge/mc-forge-" + WorkspaceConfig.VERSION + "-src.jar", bytes(random, 4 << 20));
+		final File mcp = file(mirror, "https://data.mgnet.work/forge/" + WorkspaceConfig.VERSION + "-mcp.zip");
+		try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(mcp.toPath()))) {
+			// the workspace checks for the srg mappings
+			out.putNextEntry(new ZipEntry("mcp-srg.srg"));
+			for (int i = 0; i < 20000; i++) out.write(("CL: net/minecraft/a" + i + " net/minecraft/Example" + i + "\n").getBytes(StandardCharsets.UTF_8));
+			for (int i = 0; i < 400; i++) {
+				out.putNextEntry(new ZipEntry("conf/entry-" + i + ".csv"));
+				out.write(bytes(random, 4096));
+			}
+		}
+		total += mcp.length();
+		for (String suffix : new String[] { ".jar", "-sources.jar", "-javadoc.jar", "-processor.jar" }) 
+			total += write(mirror, "https://repo.spongepowered.org/repository/maven-public/org/spongepowered/mixin/0.8.2/mixin-0.8.2" + suffix, bytes(random, 1 << 20));
+		return total;
+	}
+	
+	private static JsonObject artifact(String path, Random random) {
+		final JsonObject artifact = new JsonObject();
+		artifact.addProperty("path", path);
+		artifact.addProperty("url", "https://libraries.minecraft.net/" + path);
+		artifact.addProperty("sha1", hash(random));
+		artifact.addProperty("size", random.nextInt(1 << 22));
+		return artifact;
+	}
+	
+	private static JsonArray rules(String[]... rules) {
+		final JsonArray array = new JsonArray();
+		for (String[] rule : rules) {
+			final JsonObject object = new JsonObject();
+			object.addProperty("action", rule[0]);
+			if (rule[1] != null) {
+				final JsonObject os = new JsonObject();
+				os.addProperty("name", rule[1]);
+				object.add("os", os);
+			}
+			array.add(object);
+		}
+		return array;
+	}
+	
+	private static JsonObject artifact(File mirror, String url, String path, byte[] content) throws IOException {
+		write(mirror, url, content);
+		final JsonObject artifact = new JsonObject();
+		artifact.addProperty("path", path);
+		artifact.addProperty("url", url);
+		artifact.addProperty("sha1", sha1(content));
+		artifact.addProperty("size", content.length);
+		return artifact;
+	}
+	
+	private static byte[] nativesJar(Random random, int i) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+			out.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+			out.write("Manifest-Version: 1.0\n".getBytes(StandardCharsets.UTF_8));
+			out.putNextEntry(new ZipEntry("liblibrary-" + i + ".so"));
+			out.write(bytes(random, 32 * 1024));
+		}
+		return bytes.toByteArray();
+	}
+	
+	private static File file(File mirror, String url) {
+		final File file = new File(mirror, url.substring(url.indexOf("://") + 3));
+		file.getParentFile().mkdirs();
+		return file;
+	}
+	
+	private static long write(File mirror, String url, byte[] content) throws IOException {
+		Files.write(file(mirror, url).toPath(), content);
+		return content.length;
+	}
+	
+	private static byte[] bytes(Random random, int size) {
+		// half random, half zeroes, so archives compress a bit like real ones
+		final byte[] bytes = new byte[size];
+		random.nextBytes(bytes);
+		for (int i = 0; i < size; i += 2) bytes[i] = 0;
+		return bytes;
+	}
+	
+	private static String sha1(byte[] content) {
+		try {
+			return Utils.toHex(MessageDigest.getInstance("SHA-1").digest(content));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private static String hash(Random random) {
+		final byte[] digest = new byte[20];
+		random.nextBytes(digest);
+		return Utils.toHex(digest);
+	}
+	
+}
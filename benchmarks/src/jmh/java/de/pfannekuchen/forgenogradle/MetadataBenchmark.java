@@ -0,0 +1,75 @@
+package de.pfannekuchen.forgenogradle;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+import de.pfannekuchen.forgenogradle.gson.json.VersionJson;
+import de.pfannekuchen.forgenogradle.gson.jsonassets.AssetsJson;
+import de.pfannekuchen.forgenogradle.gson.jsonforge.ForgeVersionJson;
+
+/**
+ * Parses the version, forge and asset jsons the way GameMetadata does, straight from their raw bytes
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MetadataBenchmark {
+
+	private final Gson gson = new Gson();
+	private byte[] versionJson;
+	private byte[] forgeJson;
+	private byte[] assetIndex;
+	
+	@Setup
+	public void setup() {
+		// about the size of the real 1.12.2 jsons
+		versionJson = Fixtures.versionJson(60).getBytes(StandardCharsets.UTF_8);
+		forgeJson = Fixtures.forgeJson(40).getBytes(StandardCharsets.UTF_8);
+		assetIndex = Fixtures.assetIndex(3500).getBytes(StandardCharsets.UTF_8);
+	}
+	
+	@Benchmark
+	public VersionJson versionJson() {
+		return gson.fromJson(reader(versionJson), VersionJson.class);
+	}
+	
+	@Benchmark
+	public ForgeVersionJson forgeJson() {
+		return gson.fromJson(reader(forgeJson), ForgeVersionJson.class);
+	}
+	
+	@Benchmark
+	public AssetsJson assetIndex() throws IOException {
+		return AssetsJson.read(reader(assetIndex));
+	}
+	
+	/**
+	 * Baseline: the asset index as a generic json tree, about what the old model of boxed objects in a map cost
+	 */
+	@Benchmark
+	public JsonObject assetIndexTree() {
+		return JsonParser.parseReader(reader(assetIndex)).getAsJsonObject();
+	}
+	
+	private static JsonReader reader(byte[] json) {
+		return new JsonReader(new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8));
+	}
+	
+}
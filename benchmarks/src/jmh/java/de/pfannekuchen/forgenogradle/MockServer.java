@@ -0,0 +1,258 @@
+package de.pfannekuchen.forgenogradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local http server serving a mirror laid out as mirror/host/path, with a configurable latency, bandwidth and error rate
+ * @author agent
+ */
+public class MockServer {
+	
+	/**
+	 * Size of the chunks the bandwidth is throttled in
+	 */
+	private static final int CHUNK = 16 * 1024;
+	
+	/**
+	 * Root of the mirror
+	 */
+	private final File mirror;
+	
+	/**
+	 * Delay before every response in milliseconds
+	 */
+	private final long latency;
+	
+	/**
+	 * Bandwidth shared by all connections in bytes per second or 0 for unlimited
+	 */
+	private final long bandwidth;
+	
+	/**
+	 * Chance of every request failing with a 503
+	 */
+	private final double errorRate;
+	
+	/**
+	 * Decides which requests fail, seeded so every run fails the same way
+	 */
+	private final Random random = new Random(1122L);
+	
+	/**
+	 * Time in nanos at which the shared link is free again
+	 */
+	private long linkFree;
+	
+	/**
+	 * Counters of the served requests
+	 */
+	private final AtomicLong requests = new AtomicLong(), notModified = new AtomicLong(), errors = new AtomicLong(), bytes = new AtomicLong();
+	
+	/**
+	 * Client addresses of the served requests, every connection has its own port
+	 */
+	private final Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+	
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	
+	/**
+	 * Creates the server on a free port of the loopback interface
+	 * @param mirror Root of the mirror
+	 * @param latency Delay before every response in milliseconds
+	 * @param bandwidth Bandwidth shared by all connections in bytes per second or 0 for unlimited
+	 * @param errorRate Chance of every request failing with a 503
+	 * @throws IOException Unable to bind the server
+	 */
+	public MockServer(File mirror, long latency, long bandwidth, double errorRate) throws IOException {
+		this.mirror = mirror;
+		this.latency = latency;
+		this.bandwidth = bandwidth;
+		this.errorRate = errorRate;
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+		this.server.createContext("/", this::handle);
+		this.server.setExecutor(executor);
+	}
+	
+	public void start() {
+		server.start();
+	}
+	
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+	
+	/**
+	 * @return Base url of the mirror, ending with a slash
+	 */
+	public String getUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+	}
+	
+	/**
+	 * Resets all counters
+	 */
+	public void reset() {
+		requests.set(0);
+		notModified.set(0);
+		errors.set(0);
+		bytes.set(0);
+		connections.clear();
+	}
+	
+	public long getRequests() {
+		return requests.get();
+	}
+	
+	public long getNotModified() {
+		return notModified.get();
+	}
+	
+	public long getErrors() {
+		return errors.get();
+	}
+	
+	public long getBytes() {
+		return bytes.get();
+	}
+	
+	/**
+	 * @return Amount of connections requests were served on
+	 */
+	public long getConnections() {
+		return connections.size();
+	}
+	
+	/**
+	 * Serves a single request, supporting conditional and single range requests, ranges only if the If-Range etag matches
+	 * @param exchange Request to serve
+	 * @throws IOException Unable to respond
+	 */
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			requests.incrementAndGet();
+			connections.add(exchange.getRemoteAddress());
+			if (latency > 0) Thread.sleep(latency);
+			final boolean fail;
+			synchronized (random) {
+				fail = errorRate > 0 && random.nextDouble() < errorRate;
+			}
+			if (fail) {
+				errors.incrementAndGet();
+				exchange.sendResponseHeaders(503, -1);
+				return;
+			}
+			final File file = new File(mirror, exchange.getRequestURI().getPath());
+			if (!file.getCanonicalPath().startsWith(mirror.getCanonicalPath()) || !file.isFile()) {
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+			// Validators derived from the file, like a static file server
+			final String etag = "\"" + Long.toHexString(file.length()) + "-" + Long.toHexString(file.lastModified()) + "\"";
+			final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+			format.setTimeZone(TimeZone.getTimeZone("GMT"));
+			exchange.getResponseHeaders().set("ETag", etag);
+			exchange.getResponseHeaders().set("Last-Modified", format.format(new Date(file.lastModified())));
+			exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+			if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				notModified.incrementAndGet();
+				exchange.sendResponseHeaders(304, -1);
+				return;
+			}
+			// Parse a single "bytes=start-end" range
+			final long length = file.length();
+			long start = 0, end = length - 1;
+			String range = exchange.getRequestHeaders().getFirst("Range");
+			// a range of a different version of the file is answered with the whole file
+			final String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+			if (ifRange != null && !ifRange.equals(etag)) range = null;
+			if (range != null && range.startsWith("bytes=") && !range.contains(",")) {
+				final String[] bounds = range.substring(6).split("-", -1);
+				if (!bounds[0].isEmpty()) {
+					start = Long.parseLong(bounds[0].trim());
+					if (!bounds[1].isEmpty()) end = Math.min(end, Long.parseLong(bounds[1].trim()));
+				} else start = Math.max(0, length - Long.parseLong(bounds[1].trim()));
+				if (start > end) {
+					exchange.getResponseHeaders().set("Content-Range", "bytes */" + length);
+					exchange.sendResponseHeaders(416, -1);
+					return;
+				}
+				exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + length);
+				exchange.sendResponseHeaders(206, end - start + 1);
+			} else if (range == null) {
+				exchange.sendResponseHeaders(200, length == 0 ? -1 : length);
+			} else {
+				// multiple ranges are not supported, serve the whole file
+				end = length - 1;
+				exchange.sendResponseHeaders(200, length == 0 ? -1 : length);
+			}
+			if ("HEAD".equals(exchange.getRequestMethod()) || length == 0) return;
+			send(file, start, end - start + 1, exchange.getResponseBody());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			// the client went away, e.g. after a probe
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	/**
+	 * Sends part of a file, throttled to the bandwidth of the shared link
+	 * @param file File to send
+	 * @param offset First byte to send
+	 * @param count Amount of bytes to send
+	 * @param out Response body
+	 * @throws IOException Unable to send the file
+	 */
+	private void send(File file, long offset, long count, OutputStream out) throws IOException {
+		final byte[] buffer = new byte[CHUNK];
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); InputStream in = Channels.newInputStream(raf.getChannel().position(offset))) {
+			while (count > 0) {
+				final int read = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+				if (read == -1) break;
+				throttle(read);
+				out.write(buffer, 0, read);
+				bytes.addAndGet(read);
+				count -= read;
+			}
+		}
+	}
+	
+	/**
+	 * Reserves time on the shared link and waits for it
+	 * @param size Amount of bytes about to be sent
+	 */
+	private void throttle(int size) {
+		if (bandwidth <= 0) return;
+		final long wait;
+		synchronized (this) {
+			final long now = System.nanoTime();
+			linkFree = Math.max(now, linkFree) + size * 1_000_000_000L / bandwidth;
+			wait = linkFree - now;
+		}
+		LockSupport.parkNanos(wait);
+	}
+
+}
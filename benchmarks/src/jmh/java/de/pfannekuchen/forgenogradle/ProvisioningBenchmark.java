@@ -0,0 +1,230 @@
+package de.pfannekuchen.forgenogradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * End-to-end benchmark provisioning workspaces from a local mock server, measuring a cold, a warm and a no-op run.
+ * Every run is a separate ForgeNoGradle process, so the peak resident memory of a run can be measured.
+ * Once a run fails, the remaining runs are skipped, as they would only measure a partial store.
+ * A run that opened a new connection for most of its requests fails as well, as the transport is expected to reuse its connections
+ *
+ * Usage: ProvisioningBenchmark [--latency=ms] [--bandwidth=MB/s] [--errors=rate] [--libraries=n] [--objects=n] [--output=file]
+ * @author agent
+ */
+public class ProvisioningBenchmark {
+	
+	/**
+	 * System property of the child process naming the file the peak resident memory is written to
+	 */
+	private static final String PEAK_PROPERTY = "fng.benchmark.peak";
+	
+	/**
+	 * Least amount of requests of a run for checking the connection reuse, far more than there are concurrent connections
+	 */
+	private static final long REUSE_REQUESTS = 100;
+	
+	/**
+	 * Result of a single run
+	 */
+	private static class Run {
+		
+		String scenario;
+		int exit;
+		boolean skipped;
+		long wall, peak, requests, notModified, errors, bytes, connections;
+		
+		/**
+		 * @return Whether the run reused connections for at least half of its requests, always true for runs with too few requests to tell
+		 */
+		boolean reused() {
+			return requests < REUSE_REQUESTS || connections <= requests / 2;
+		}
+		
+		/**
+		 * @return "ok", "FAILED", "NO REUSE" or "skipped"
+		 */
+		String status() {
+			return skipped ? "skipped" : exit != 0 ? "FAILED" : !reused() ? "NO REUSE" : "ok";
+		}
+		
+		JsonObject toJson() {
+			final JsonObject json = new JsonObject();
+			json.addProperty("scenario", scenario);
+			json.addProperty("status", status());
+			json.addProperty("exit", exit);
+			json.addProperty("wallMillis", wall / 1000000);
+			json.addProperty("peakRssKb", peak);
+			json.addProperty("requests", requests);
+			json.addProperty("notModified", notModified);
+			json.addProperty("errors", errors);
+			json.addProperty("bytes", bytes);
+			json.addProperty("connections", connections);
+			return json;
+		}
+	
+	}
+	
+	public static void main(String[] args) throws Exception {
+		// Inside the child process: record the peak memory on exit and run the program itself
+		if (args.length > 0 && "--child".equals(args[0])) {
+			final File peak = new File(System.getProperty(PEAK_PROPERTY));
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				try {
+					Files.write(peak.toPath(), String.valueOf(peakRss()).getBytes(StandardCharsets.UTF_8));
+				} catch (IOException e) {
+					System.err.println("[ProvisioningBenchmark] Unable to write the peak memory: " + e);
+				}
+			}));
+			ForgeNoGradle.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		
+		long latency = 20, bandwidth = 50;
+		double errors = 0;
+		int libraries = 60, objects = 3000;
+		File output = null;
+		for (String arg : args) {
+			if (arg.startsWith("--latency=")) latency = Long.parseLong(arg.substring(10));
+			else if (arg.startsWith("--bandwidth=")) bandwidth = Long.parseLong(arg.substring(12));
+			else if (arg.startsWith("--errors=")) errors = Double.parseDouble(arg.substring(9));
+			else if (arg.startsWith("--libraries=")) libraries = Integer.parseInt(arg.substring(12));
+			else if (arg.startsWith("--objects=")) objects = Integer.parseInt(arg.substring(10));
+			else if (arg.startsWith("--output=")) output = new File(arg.substring(9));
+			else System.err.println("[ProvisioningBenchmark] Ignoring unknown argument: " + arg);
+		}
+		
+		// Generate the mirror and everything the program expects on its classpath
+		final File root = Fixtures.temp("e2e");
+		final File mirror = new File(root, "mirror");
+		final long size = Fixtures.mirror(mirror, libraries, objects);
+		System.out.println(String.format("[ProvisioningBenchmark] Generated %.2f MB of fixtures in %s", size / 1048576.0, mirror));
+		final File resources = new File(root, "resources");
+		resources.mkdir();
+		if (ProvisioningBenchmark.class.getResource("/forgeapi.lib") == null) Files.write(new File(resources, "forgeapi.lib").toPath(), new byte[0]);
+		
+		final MockServer server = new MockServer(mirror, latency, bandwidth * 1024 * 1024, errors);
+		server.start();
+		System.out.println(String.format("[ProvisioningBenchmark] Serving with %d ms latency, %d MB/s and %.1f%% errors on %s", latency, bandwidth, errors * 100, server.getUrl()));
+		final List<Run> runs = new ArrayList<>();
+		boolean failed = false;
+		try {
+			// Nothing cached, a new workspace that has already been provisioned, the same workspace again
+			final String[] scenarios = new String[] { "cold", "warm", "no-op" };
+			final String[] workspaces = new String[] { "cold", "warm", "warm" };
+			for (int i = 0; i < scenarios.length; i++) {
+				if (failed) {
+					final Run skipped = new Run();
+					skipped.scenario = scenarios[i];
+					skipped.skipped = true;
+					runs.add(skipped);
+					continue;
+				}
+				final Run run = run(scenarios[i], new File(root, workspaces[i]), root, resources, server);
+				runs.add(run);
+				if (run.exit != 0) {
+					failed = true;
+					System.err.println(String.format("[ProvisioningBenchmark] %s failed with exit code %d, skipping the remaining runs, see %s", run.scenario, run.exit, new File(root, run.scenario + ".log")));
+				} else if (!run.reused()) {
+					failed = true;
+					System.err.println(String.format("[ProvisioningBenchmark] %s opened %d connections for %d requests, the transport does not reuse its connections", run.scenario, run.connections, run.requests));
+				}
+			}
+		} finally {
+			server.stop();
+		}
+		
+		// Print and write the results
+		System.out.println(String.format("%-8s %8s %6s %10s %12s %10s %8s %8s %12s %12s", "scenario", "status", "exit", "wall (s)", "peak (MB)", "requests", "304", "errors", "served (MB)", "connections"));
+		final JsonArray json = new JsonArray();
+		for (Run run : runs) {
+			System.out.println(String.format("%-8s %8s %6d %10.2f %12.1f %10d %8d %8d %12.2f %12d", run.scenario, run.status(), run.exit, run.wall / 1.0E9, run.peak / 1024.0, run.requests, run.notModified, run.errors, run.bytes / 1048576.0, run.connections));
+			json.add(run.toJson());
+		}
+		final JsonObject report = new JsonObject();
+		report.addProperty("latencyMillis", latency);
+		report.addProperty("bandwidthMBps", bandwidth);
+		report.addProperty("errorRate", errors);
+		report.addProperty("libraries", libraries);
+		report.addProperty("objects", objects);
+		report.addProperty("fixtureBytes", size);
+		report.addProperty("valid", !failed);
+		report.add("runs", json);
+		if (output == null) output = new File(root, "e2e-report.json");
+		Files.write(output.toPath(), new GsonBuilder().setPrettyPrinting().create().toJson(report).getBytes(StandardCharsets.UTF_8));
+		System.out.println("[ProvisioningBenchmark] Wrote " + output.getAbsolutePath());
+		
+		// Keep the fixtures of failed runs for inspection and fail the benchmark, so the numbers are never mistaken for a valid result
+		if (failed) System.exit(1);
+		Utils.deleteDirectory(root);
+	}
+	
+	/**
+	 * Provisions a workspace in a new process against the mock server
+	 * @param scenario Name of the run
+	 * @param workspace Workspace to provision
+	 * @param root Folder with the store and metadata cache shared by all runs
+	 * @param resources Additional classpath entry of the child
+	 * @param server Server to download from
+	 * @return Result of the run
+	 * @throws IOException Unable to start the process
+	 * @throws InterruptedException Interrupted while waiting for the process
+	 */
+	private static Run run(String scenario, File workspace, File root, File resources, MockServer server) throws IOException, InterruptedException {
+		workspace.mkdirs();
+		final File peak = new File(root, scenario + ".peak");
+		final File log = new File(root, scenario + ".log");
+		final List<String> command = new ArrayList<>();
+		command.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path") + File.pathSeparator + resources.getAbsolutePath());
+		command.add("-Dfng.store=" + new File(root, "store").getAbsolutePath());
+		command.add("-Dfng.metadata=" + new File(root, "metadata").getAbsolutePath());
+		command.add("-D" + PEAK_PROPERTY + "=" + peak.getAbsolutePath());
+		command.add(ProvisioningBenchmark.class.getName());
+		command.add("--child");
+		command.add("--headless");
+		command.add("--mirror=" + server.getUrl());
+		
+		System.out.println(String.format("[ProvisioningBenchmark] Running %s, logging to %s", scenario, log));
+		server.reset();
+		final Run run = new Run();
+		run.scenario = scenario;
+		final long start = System.nanoTime();
+		final Process process = new ProcessBuilder(command).directory(workspace).redirectErrorStream(true).redirectOutput(log).start();
+		run.exit = process.waitFor();
+		run.wall = System.nanoTime() - start;
+		run.peak = peak.exists() ? Long.parseLong(new String(Files.readAllBytes(peak.toPath()), StandardCharsets.UTF_8).trim()) : -1;
+		run.requests = server.getRequests();
+		run.notModified = server.getNotModified();
+		run.errors = server.getErrors();
+		run.bytes = server.getBytes();
+		run.connections = server.getConnections();
+		return run;
+	}
+	
+	/**
+	 * Reads the peak resident memory of this process
+	 * @return Peak resident memory in kilobytes or -1 if unknown
+	 */
+	private static long peakRss() {
+		try {
+			// Only linux exposes the high water mark
+			for (String line : Files.readAllLines(new File("/proc/self/status").toPath(), StandardCharsets.UTF_8))
+				if (line.startsWith("VmHWM:")) return Long.parseLong(line.substring(6).replace("kB", "").trim());
+		} catch (IOException | NumberFormatException e) {
+			// not available
+		}
+		return -1;
+	}
+
+}
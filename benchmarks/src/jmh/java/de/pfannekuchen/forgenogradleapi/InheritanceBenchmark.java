@@ -0,0 +1,94 @@
+package de.pfannekuchen.forgenogradleapi;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.gson.Gson;
+
+import net.md_5.specialsource.JarMapping;
+import net.md_5.specialsource.provider.ClassLoaderProvider;
+
+/**
+ * Looks up the parents of every class of the asm, SpecialSource and GSON jars, through the inheritance index and through a class loader
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class InheritanceBenchmark {
+	
+	private File root;
+	private List<String> classes;
+	private InheritanceIndex index;
+	private URLClassLoader loader;
+	private ClassLoaderProvider provider;
+	
+	@Setup
+	public void setup() throws IOException, URISyntaxException {
+		root = Files.createTempDirectory("fng-inheritance").toFile();
+		// real libraries, they are on the classpath of the benchmark anyways
+		final List<File> libraries = new ArrayList<>(new LinkedHashSet<>(Arrays.asList(jar(ClassReader.class), jar(ClassNode.class), jar(JarMapping.class), jar(Gson.class))));
+		classes = new ArrayList<>();
+		for (File library : libraries) {
+			try (ZipFile zip = new ZipFile(library)) {
+				final Enumeration<? extends ZipEntry> entries = zip.entries();
+				while (entries.hasMoreElements()) {
+					final String name = entries.nextElement().getName();
+					if (name.endsWith(".class")) classes.add(name.substring(0, name.length() - 6));
+				}
+			}
+		}
+		index = InheritanceIndex.open(new File(root, "inheritance.index"), libraries);
+		final URL[] urls = new URL[libraries.size()];
+		for (int i = 0; i < urls.length; i++) urls[i] = libraries.get(i).toURI().toURL();
+		loader = new URLClassLoader(urls, null);
+		provider = new ClassLoaderProvider(loader);
+	}
+	
+	@TearDown
+	public void teardown() throws IOException {
+		loader.close();
+		// the mapped index can only be deleted once it is unmapped on windows, which is up to the garbage collector
+		new File(root, "inheritance.index").delete();
+		root.delete();
+	}
+	
+	@Benchmark
+	public void index(Blackhole blackhole) {
+		for (String name : classes) blackhole.consume(index.getParents(name));
+	}
+	
+	@Benchmark
+	public void classLoader(Blackhole blackhole) {
+		for (String name : classes) blackhole.consume(provider.getParents(name));
+	}
+	
+	private static File jar(Class<?> clazz) throws URISyntaxException {
+		return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI());
+	}
+
+}
@@ -0,0 +1,244 @@
+package de.pfannekuchen.forgenogradleapi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import net.md_5.specialsource.JarMapping;
+import net.md_5.specialsource.JarRemapper;
+import net.md_5.specialsource.provider.JointProvider;
+
+/**
+ * Remaps a jar of generated classes with a growing amount of threads, to see how the export scales with the cores,
+ * and again after editing a single class with the classes of the last export in the cache.
+ * Before measuring, the output is checked against SpecialSource remapping the same jar on its own
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RemapBenchmark {
+	
+	@Param({ "1", "2", "4", "8" })
+	public int threads;
+	
+	@Param({ "3000" })
+	public int classes;
+	
+	/**
+	 * Amount of fields and methods of every generated class
+	 */
+	private static final int MEMBERS = 20;
+	
+	private File root;
+	private File out;
+	private ExportJar jar;
+	private ExportJar library;
+	private JarMapping mapping;
+	private ParallelRemapper remapper;
+	private ParallelRemapper incremental;
+	private int edits;
+	
+	@Setup
+	public void setup() throws IOException {
+		root = Files.createTempDirectory("fng-remap").toFile();
+		out = new File(root, "export.jar");
+		jar = new ExportJar();
+		for (int i = 0; i < classes; i++) {
+			// every class extends the previous one of its chain and calls into it, like mod classes extending minecraft classes
+			final String name = "net/minecraft/Class" + i;
+			final String parent = i % 50 == 0 ? "java/lang/Object" : "net/minecraft/Class" + (i - 1);
+			jar.add(name + ".class", generate(name, parent, null));
+		}
+		// a lambda of a classpath interface only inheriting the mapped method, the interface appearing nowhere but in the invokedynamic
+		library = new ExportJar();
+		library.add("net/minecraft/Function.class", generateInterface("net/minecraft/Function", null));
+		library.add("net/minecraft/IntFunction.class", generateInterface("net/minecraft/IntFunction", "net/minecraft/Function"));
+		jar.add("com/example/Lambda.class", generateLambda("com/example/Lambda", "net/minecraft/IntFunction"));
+		mapping = mapping();
+		remapper = new ParallelRemapper(mapping, library, threads);
+		check();
+		// the first export fills the cache
+		incremental = new ParallelRemapper(mapping, library, threads, new RemapCache(new File(root, "export.jar.cache"), "benchmark"));
+		incremental.write(jar, out);
+	}
+	
+	@TearDown
+	public void teardown() throws IOException {
+		remapper.shutdown();
+		incremental.shutdown();
+		new File(root, "export.jar.cache").delete();
+		jar.close();
+		library.close();
+		out.delete();
+		root.delete();
+	}
+	
+	@Benchmark
+	public File remap() throws IOException {
+		remapper.write(jar, out);
+		return out;
+	}
+	
+	@Benchmark
+	public File remapIncremental() throws IOException {
+		// a different source file name stands in for a one-line edit of a class in the middle of a chain
+		final int edited = classes / 2;
+		jar.add("net/minecraft/Class" + edited + ".class", generate("net/minecraft/Class" + edited, "net/minecraft/Class" + (edited - 1), "Edit" + edits++ + ".java"));
+		incremental.write(jar, out);
+		return out;
+	}
+	
+	/**
+	 * Creates the mappings of all generated classes
+	 * @return New mappings
+	 */
+	private JarMapping mapping() {
+		final JarMapping mapping = new JarMapping();
+		for (int i = 0; i < classes; i++) {
+			final String name = "net/minecraft/Class" + i;
+			mapping.classes.put(name, "a" + i);
+			for (int j = 0; j < MEMBERS; j++) {
+				mapping.fields.put(name + "/field" + j, "field_" + i + "_" + j);
+				mapping.methods.put(name + "/method" + j + " (I)I", "func_" + i + "_" + j);
+			}
+		}
+		mapping.classes.put("net/minecraft/Function", "b");
+		mapping.classes.put("net/minecraft/IntFunction", "c");
+		mapping.methods.put("net/minecraft/Function/apply (I)I", "func_apply");
+		return mapping;
+	}
+	
+	/**
+	 * Remaps the jar with SpecialSource alone, looking up the inheritance lazily, and fails if the parallel remapper wrote anything else
+	 * @throws IOException Unable to remap or read the jar
+	 */
+	private void check() throws IOException {
+		remapper.write(jar, out);
+		final JarMapping serialMapping = mapping();
+		final JointProvider inheritance = new JointProvider();
+		inheritance.add(jar);
+		inheritance.add(library);
+		serialMapping.setFallbackInheritanceProvider(inheritance);
+		final JarRemapper serial = new JarRemapper(null, serialMapping);
+		try (ZipFile written = new ZipFile(out)) {
+			for (String name : jar.getNames()) {
+				if (!name.endsWith(".class")) continue;
+				final byte[] expected = serial.remapClassFile(jar.read(name), jar);
+				final ZipEntry entry = written.getEntry(serial.map(name.substring(0, name.length() - 6)) + ".class");
+				if (entry == null) throw new IllegalStateException("Missing remapped class: " + name);
+				try (InputStream in = written.getInputStream(entry)) {
+					final byte[] actual = new byte[(int) entry.getSize()];
+					int read = 0;
+					while (read < actual.length) read += in.read(actual, read, actual.length - read);
+					if (!Arrays.equals(expected, actual)) throw new IllegalStateException("Remapped differently than by SpecialSource: " + name);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Generates a class with fields and methods reading the fields and calling the methods of its parent
+	 * @param name Name of the class
+	 * @param parent Name of the superclass
+	 * @param source Name of the source file or null
+	 * @return Class file
+	 */
+	private static byte[] generate(String name, String parent, String source) {
+		final ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, parent, null);
+		if (source != null) writer.visitSource(source, null);
+		final MethodVisitor init = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+		init.visitCode();
+		init.visitVarInsn(Opcodes.ALOAD, 0);
+		init.visitMethodInsn(Opcodes.INVOKESPECIAL, parent, "<init>", "()V", false);
+		init.visitInsn(Opcodes.RETURN);
+		init.visitMaxs(0, 0);
+		init.visitEnd();
+		for (int j = 0; j < MEMBERS; j++) {
+			writer.visitField(Opcodes.ACC_PUBLIC, "field" + j, "I", null, null).visitEnd();
+			final MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC, "method" + j, "(I)I", null, null);
+			method.visitCode();
+			method.visitVarInsn(Opcodes.ALOAD, 0);
+			method.visitFieldInsn(Opcodes.GETFIELD, name, "field" + j, "I");
+			if (!"java/lang/Object".equals(parent)) {
+				// inherited members are looked up through the inheritance
+				method.visitVarInsn(Opcodes.ALOAD, 0);
+				method.visitVarInsn(Opcodes.ILOAD, 1);
+				method.visitMethodInsn(Opcodes.INVOKESPECIAL, parent, "method" + j, "(I)I", false);
+				method.visitInsn(Opcodes.IADD);
+				method.visitVarInsn(Opcodes.ALOAD, 0);
+				method.visitFieldInsn(Opcodes.GETFIELD, name, "field" + ((j + 1) % MEMBERS), "I");
+				method.visitInsn(Opcodes.IADD);
+			}
+			method.visitInsn(Opcodes.IRETURN);
+			method.visitMaxs(0, 0);
+			method.visitEnd();
+		}
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+
+	
+	/**
+	 * Generates a functional interface, declaring the method itself or only inheriting it
+	 * @param name Name of the interface
+	 * @param parent Name of the superinterface or null to declare the method
+	 * @return Class file
+	 */
+	private static byte[] generateInterface(String name, String parent) {
+		final ClassWriter writer = new ClassWriter(0);
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT, name, null, "java/lang/Object", parent == null ? null : new String[] { parent });
+		if (parent == null) writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "apply", "(I)I", null, null).visitEnd();
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+	
+	/**
+	 * Generates a class creating a lambda of a functional interface
+	 * @param name Name of the class
+	 * @param function Name of the functional interface
+	 * @return Class file
+	 */
+	private static byte[] generateLambda(String name, String function) {
+		final ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+		final MethodVisitor create = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "create", "()Ljava/lang/Object;", null, null);
+		create.visitCode();
+		final Handle metafactory = new Handle(Opcodes.H_INVOKESTATIC, "java/lang/invoke/LambdaMetafactory", "metafactory", "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;", false);
+		final Handle body = new Handle(Opcodes.H_INVOKESTATIC, name, "lambda$create$0", "(I)I", false);
+		create.visitInvokeDynamicInsn("apply", "()L" + function + ";", metafactory, Type.getType("(I)I"), body, Type.getType("(I)I"));
+		create.visitInsn(Opcodes.ARETURN);
+		create.visitMaxs(0, 0);
+		create.visitEnd();
+		final MethodVisitor lambda = writer.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC, "lambda$create$0", "(I)I", null, null);
+		lambda.visitCode();
+		lambda.visitVarInsn(Opcodes.ILOAD, 0);
+		lambda.visitInsn(Opcodes.IRETURN);
+		lambda.visitMaxs(0, 0);
+		lambda.visitEnd();
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+
+}
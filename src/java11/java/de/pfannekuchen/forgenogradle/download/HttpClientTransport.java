@@ -0,0 +1,187 @@
+package de.pfannekuchen.forgenogradle.download;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transport multiplexing requests over pooled HTTP/2 connections, requires java 11 and is therefore compiled separately and only loaded through reflection
+ * @author agent
+ */
+public class HttpClientTransport implements Transport {
+
+	/**
+	 * Shared client holding the connection pool
+	 */
+	private final HttpClient client = HttpClient.newBuilder()
+			.version(HttpClient.Version.HTTP_2)
+			.followRedirects(HttpClient.Redirect.NORMAL)
+			.connectTimeout(Duration.ofMillis(CONNECT_TIMEOUT))
+			.build();
+	
+	/**
+	 * Transport for non HTTP urls
+	 */
+	private final Transport fallback = new UrlConnectionTransport();
+	
+	@Override
+	public Response get(URL url, Map<String, String> headers) throws IOException {
+		if (!url.getProtocol().startsWith("http")) return fallback.get(url, headers);
+		try {
+			// the request timeout only covers the time until the response headers arrived, the body has its own idle timeout
+			HttpRequest.Builder request = HttpRequest.newBuilder(url.toURI()).timeout(Duration.ofMillis(READ_TIMEOUT)).GET();
+			for (Entry<String, String> header : headers.entrySet()) request.header(header.getKey(), header.getValue());
+			HttpResponse<Flow.Publisher<List<ByteBuffer>>> response = client.send(request.build(), HttpResponse.BodyHandlers.ofPublisher());
+			// collect response headers
+			Map<String, String> responseHeaders = new HashMap<>();
+			for (Entry<String, List<String>> header : response.headers().map().entrySet()) {
+				if (!header.getValue().isEmpty()) responseHeaders.put(header.getKey().toLowerCase(Locale.ENGLISH), header.getValue().get(0));
+			}
+			Body body = new Body(url);
+			response.body().subscribe(body);
+			return new Response(response.statusCode(), responseHeaders, body);
+		} catch (URISyntaxException e) {
+			throw new IOException("Invalid url: " + url.toString(), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while requesting: " + url.toString());
+		}
+	}
+	
+	/**
+	 * Body of a response, failing once no data arrived for the read timeout just like the body of a url connection
+	 */
+	private static class Body extends InputStream implements Flow.Subscriber<List<ByteBuffer>> {
+		
+		/**
+		 * Marks the end of the body in the queue
+		 */
+		private static final List<ByteBuffer> END = new ArrayList<>();
+		
+		/**
+		 * Url of the response, for error messages
+		 */
+		private final URL url;
+		
+		/**
+		 * Received chunks that have not been read yet, at most one is requested at a time
+		 */
+		private final BlockingQueue<List<ByteBuffer>> received = new LinkedBlockingQueue<>();
+		
+		private volatile Flow.Subscription subscription;
+		private volatile Throwable error;
+		private volatile boolean closed;
+		
+		/**
+		 * Chunk that is currently read
+		 */
+		private Iterator<ByteBuffer> chunk = Collections.emptyIterator();
+		private ByteBuffer buffer;
+		private boolean ended;
+		
+		Body(URL url) {
+			this.url = url;
+		}
+		
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			if (closed) subscription.cancel();
+			else subscription.request(1);
+		}
+		
+		@Override
+		public void onNext(List<ByteBuffer> item) {
+			received.add(item);
+		}
+		
+		@Override
+		public void onError(Throwable throwable) {
+			error = throwable;
+			received.add(END);
+		}
+		
+		@Override
+		public void onComplete() {
+			received.add(END);
+		}
+		
+		/**
+		 * Waits for the next bytes of the body
+		 * @return Buffer with remaining bytes or null at the end of the body
+		 * @throws IOException The body failed or stalled for longer than the read timeout
+		 */
+		private ByteBuffer next() throws IOException {
+			if (closed) throw new IOException("Stream closed");
+			while (buffer == null || !buffer.hasRemaining()) {
+				if (chunk.hasNext()) {
+					buffer = chunk.next();
+					continue;
+				}
+				if (ended) return null;
+				final List<ByteBuffer> item;
+				try {
+					item = received.poll(READ_TIMEOUT, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while reading: " + url.toString());
+				}
+				if (item == null) throw new SocketTimeoutException("Read timed out: " + url.toString());
+				if (item == END) {
+					ended = true;
+					if (error != null) throw new IOException("Unable to read: " + url.toString(), error);
+					return null;
+				}
+				chunk = item.iterator();
+				subscription.request(1);
+			}
+			return buffer;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			final ByteBuffer bytes = next();
+			return bytes == null ? -1 : bytes.get() & 0xFF;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) return 0;
+			final ByteBuffer bytes = next();
+			if (bytes == null) return -1;
+			final int read = Math.min(len, bytes.remaining());
+			bytes.get(b, off, read);
+			return read;
+		}
+		
+		@Override
+		public void close() {
+			if (closed) return;
+			closed = true;
+			// an unfinished body can not be reused, so the connection is dropped
+			if (!ended && subscription != null) subscription.cancel();
+		}
+		
+	}
+	
+}
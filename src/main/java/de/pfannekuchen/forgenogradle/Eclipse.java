@@ -118,7 +118,7 @@ public class Eclipse {
 			+ "    <stringAttribute key=\"org.eclipse.jdt.launching.PROJECT_ATTR\" value=\"%PROJECT%\"/>\r\n"
 			+ "    <stringAttribute key=\"org.eclipse.jdt.launching.PROGRAM_ARGUMENTS\" value=\"--tweakClass org.spongepowered.asm.launch.MixinTweaker --mixin mixin.json --assetsDir ../build/assets/\"/>\r\n"
 			+ "    <stringAttribute key=\"org.eclipse.jdt.launching.VM_ARGUMENTS\" value=\"-Djava.library.path=../build/natives -javaagent:../build/%MIXIN% \"/>\r\n"
-			+ "    <stringAttribute key=\"org.eclipse.jdt.launching.WORKING_DIRECTORY\" value=\"${workspace_loc:%PROJECT%}/run\"/>\r\n"
+			+ "    <stringAttribute key=\"org.eclipse.jdt.launching.WORKING_DIRECTORY\" value=\"${workspace_loc:%PROJECT%}/%RUN%\"/>\r\n"
 			+ "</launchConfiguration>";
 	
 	/**
@@ -147,5 +147,64 @@ public class Eclipse {
 	 */
 	public static final String LIBRARY_FULL = "\t<classpathentry kind=\"lib\" path=\"%PATH%\" sourcepath=\"%SOURCE%\"><attributes><attribute name=\"javadoc_location\" value=\"jar:platform:%JAVADOC%!/\"/>></attributes></classpathentry>";
 	
+	/**
+	 * .project, compiled once
+	 */
+	static final Template PROJECT_TEMPLATE = Template.compile(PROJECT);
+	
+	/**
+	 * .classpath, compiled once
+	 */
+	static final Template CLASSPATH_TEMPLATE = Template.compile(CLASSPATH);
+	
+	/**
+	 * .gitignore, compiled once
+	 */
+	static final Template GITIGNORE_TEMPLATE = Template.compile(GITIGNORE);
+	
+	/**
+	 * .factorypath, compiled once
+	 */
+	static final Template FACTORY_PATH_TEMPLATE = Template.compile(FACTOY_PATH);
+	
+	/**
+	 * .settings/org.eclipse.jdt.core.prefs, compiled once
+	 */
+	static final Template CORE_PREFS_TEMPLATE = Template.compile(CORE_PREFS);
+	
+	/**
+	 * .settings/org.eclipse.jdt.apt.core.prefs, compiled once
+	 */
+	static final Template APT_CORE_PREFS_TEMPLATE = Template.compile(APT_CORE_PREFS);
+	
+	/**
+	 * native library for .classpath, compiled once
+	 */
+	static final Template LIBRARY_NATIVE_TEMPLATE = Template.compile(LIBRARY_NATIVE);
+	
+	/**
+	 * *.launch, compiled once
+	 */
+	static final Template RUN_TEMPLATE = Template.compile(RUN);
+	
+	/**
+	 * export-1.12.2.launch, compiled once
+	 */
+	static final Template EXPORT_TEMPLATE = Template.compile(EXPORT);
+	
+	/**
+	 * library for .classpath, compiled once
+	 */
+	static final Template LIBRARY_TEMPLATE = Template.compile(LIBRARY);
+	
+	/**
+	 * library with source for .classpath, compiled once
+	 */
+	static final Template LIBRARY_SOURCE_TEMPLATE = Template.compile(LIBRARY_SOURCE);
+	
+	/**
+	 * library with source and javadoc for .classpath, compiled once
+	 */
+	static final Template LIBRARY_FULL_TEMPLATE = Template.compile(LIBRARY_FULL);
 	
 }
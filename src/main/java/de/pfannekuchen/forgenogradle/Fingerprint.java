@@ -0,0 +1,96 @@
+package de.pfannekuchen.forgenogradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import de.pfannekuchen.forgenogradle.exceptions.FilesystemException;
+
+/**
+ * Remembers the inputs every output of the workspace was generated from, so unchanged outputs can be skipped
+ * @author agent
+ */
+public class Fingerprint {
+
+	/**
+	 * File storing the fingerprints
+	 */
+	private final File file;
+	
+	/**
+	 * Fingerprints of the inputs of every output of the last run
+	 */
+	private final Properties recorded = new Properties();
+	
+	/**
+	 * Fingerprints of the inputs of every output checked during this run
+	 */
+	private final Map<String, String> pending = new HashMap<>();
+	
+	/**
+	 * Loads the fingerprints of the last run
+	 * @param file File storing the fingerprints
+	 */
+	public Fingerprint(File file) {
+		this.file = file;
+		if (!file.exists()) return;
+		try (InputStream in = Files.newInputStream(file.toPath())) {
+			recorded.load(in);
+		} catch (IOException | IllegalArgumentException e) {
+			// a broken fingerprint only means that everything is regenerated
+			recorded.clear();
+		}
+	}
+	
+	/**
+	 * Checks whether an output has to be regenerated
+	 * @param output Name of the output
+	 * @param inputs All inputs the output is generated from
+	 * @param files Files of the output, which all have to exist
+	 * @return Whether the inputs have changed or a file is missing
+	 */
+	public boolean isStale(String output, String inputs, File... files) {
+		final String fingerprint = Utils.toHex(Utils.sha1().digest(inputs.getBytes(StandardCharsets.UTF_8)));
+		pending.put(output, fingerprint);
+		return !fingerprint.equals(recorded.getProperty(output)) || !Arrays.stream(files).allMatch(File::exists);
+	}
+	
+	/**
+	 * Records that an output has been regenerated from the inputs passed to the last check
+	 * @param output Name of the output
+	 */
+	public void update(String output) {
+		recorded.setProperty(output, pending.get(output));
+		final File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+		try {
+			try (OutputStream out = Files.newOutputStream(temp.toPath())) {
+				recorded.store(out, "ForgeNoGradle workspace fingerprints");
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// catch io exceptions and rethrow them properly
+			throw new FilesystemException("Unable to write fingerprints: " + file.getAbsolutePath(), e);
+		}
+	}
+	
+	/**
+	 * Lists the names of all files in a directory
+	 * @param dir Directory to list
+	 * @return Sorted names separated by new lines
+	 */
+	public static String listing(File dir) {
+		final String[] names = dir.list();
+		if (names == null) return "";
+		Arrays.sort(names);
+		return String.join("\n", names);
+	}
+	
+}
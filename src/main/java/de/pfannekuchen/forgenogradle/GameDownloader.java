@@ -1,28 +1,28 @@
 package de.pfannekuchen.forgenogradle;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map.Entry;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-
-import com.google.gson.Gson;
+import java.util.Set;
 
 import de.pfannekuchen.forgenogradle.Utils.Os;
+import de.pfannekuchen.forgenogradle.download.ArtifactStore;
+import de.pfannekuchen.forgenogradle.download.AssetSync;
+import de.pfannekuchen.forgenogradle.download.DownloadScheduler;
+import de.pfannekuchen.forgenogradle.download.HostPermits;
+import de.pfannekuchen.forgenogradle.download.WorkspaceVerifier;
 import de.pfannekuchen.forgenogradle.exceptions.ConnectionException;
+import de.pfannekuchen.forgenogradle.gson.json.Classifiers;
 import de.pfannekuchen.forgenogradle.gson.json.Library;
 import de.pfannekuchen.forgenogradle.gson.json.NativesDownload;
 import de.pfannekuchen.forgenogradle.gson.json.Rule;
 import de.pfannekuchen.forgenogradle.gson.json.VersionJson;
-import de.pfannekuchen.forgenogradle.gson.jsonassets.Asset;
 import de.pfannekuchen.forgenogradle.gson.jsonassets.AssetsJson;
 import de.pfannekuchen.forgenogradle.gson.jsonforge.ForgeVersionJson;
 
@@ -32,14 +32,21 @@ import de.pfannekuchen.forgenogradle.gson.jsonforge.ForgeVersionJson;
  */
 public class GameDownloader {
 	
+	/**
+	 * Maximum amount of concurrent downloads
+	 */
+	private static final int DOWNLOAD_THREADS = 16;
+	
 	/**
 	 * Downloads the dependencies into the folder
-	 * @param out Output Folder for dependencies
 	 * @param in Json to go off
 	 * @param forgeversions Json to go off
-	 * @param assets Json to go off
+	 * @param natives Output Folder for natives
+	 * @param libs Output Folder for dependencies
+	 * @param store Machine-wide store for all files with a known hash
+	 * @param hosts Permits per host, shared by all workspaces
 	 */
-	public static void downloadDeps(VersionJson in, ForgeVersionJson forgeversions, AssetsJson assets, File natives, File libs, File assetsdir) {
+	public static void downloadDeps(VersionJson in, ForgeVersionJson forgeversions, File natives, File libs, ArtifactStore store, HostPermits hosts) {
 		System.out.println(String.format("[GameDownloader] Downloading Dependencies for Minecraft version %s", in.id));
 		// Detect operating system for native libraries
 		Os os = Utils.getOs();
@@ -47,122 +54,166 @@ public class GameDownloader {
 		// Create the files
 		natives.mkdirs();
 		libs.mkdirs();
-		assetsdir.mkdirs();
 		// Sort out dependencies based on the operating system
 		List<Library> dependencies = sortOutDependencies(in.libraries, os);
 		System.out.println(String.format("[GameDownloader] Fetched %d dependencies", dependencies.size()));
-		/* Try to download all game libraries */
+		// Fetch dependencies for Forge
+		List<de.pfannekuchen.forgenogradle.gson.jsonforge.Library> dependencies2 = forgeversions.libraries;
+		System.out.println(String.format("[GameDownloader] Fetched %d forge dependencies for Forge version %s", dependencies2.size(), forgeversions.id));
+		/* Download all game libraries, natives and forge libraries in parallel */
+		final Progress.Phase phase = Progress.begin("Libraries");
+		final DownloadScheduler scheduler = new DownloadScheduler(DOWNLOAD_THREADS, hosts, phase);
 		try {
 			for (Library library : dependencies) {
 				// Download the artifact
 				if (library.downloads.artifact != null) {
-					Files.copy(new URL(library.downloads.artifact.url).openStream(), new File(libs, library.downloads.artifact.path.replaceAll("/", "\\.")).toPath(), StandardCopyOption.REPLACE_EXISTING);
-					System.out.println(String.format("[GameDownloader] Downloading %s...", library.downloads.artifact.path.replaceAll("/", "\\.")));
+					final String name = library.downloads.artifact.path.replaceAll("/", "\\.");
+					final String sha1 = library.downloads.artifact.sha1;
+					final URL url = new URL(library.downloads.artifact.url);
+					scheduler.submit(url, () -> store.fetch(url, sha1, new File(libs, name)));
 				}
 				// Download the natives for the artifact
 				if (library.downloads.classifiers != null) {
-					NativesDownload nativesWin32 = library.downloads.classifiers.nativesWindows32; 	
-					NativesDownload nativesWin64 = library.downloads.classifiers.nativesWindows64;
-					NativesDownload nativesWin = library.downloads.classifiers.nativesWindows;
-					NativesDownload nativesLinux = library.downloads.classifiers.nativesLinux;
-					NativesDownload nativesOsx = library.downloads.classifiers.nativesOsx;
-					switch (os) {
-						case WIN64:
-							if (nativesWin64 != null) {
-								Files.copy(new URL(nativesWin64.url).openStream(), new File(natives, nativesWin64.path.replaceAll("/", "\\.")).toPath(), StandardCopyOption.REPLACE_EXISTING);
-								Utils.unzipFileAndDelete(natives, nativesWin64.path.replaceAll("/", "\\."), "natives");
-							}
-							if (nativesWin != null) {
-								Files.copy(new URL(nativesWin.url).openStream(), new File(natives, nativesWin.path.replaceAll("/", "\\.")).toPath(), StandardCopyOption.REPLACE_EXISTING);
-								Utils.unzipFileAndDelete(natives, nativesWin.path.replaceAll("/", "\\."), "natives");
-							}
-							break;
-						case WIN32:
-							if (nativesWin32 != null) {
-								Files.copy(new URL(nativesWin32.url).openStream(), new File(natives, nativesWin32.path.replaceAll("/", "\\.")).toPath(), StandardCopyOption.REPLACE_EXISTING);
-								Utils.unzipFileAndDelete(natives, nativesWin32.path.replaceAll("/", "\\."), "natives");
-							}
-							if (nativesWin != null) {
-								Files.copy(new URL(nativesWin.url).openStream(), new File(natives, nativesWin.path.replaceAll("/", "\\.")).toPath(), StandardCopyOption.REPLACE_EXISTING);
-								Utils.unzipFileAndDelete(natives, nativesWin.path.replaceAll("/", "\\."), "natives");
-							}
-							break;
-						case LINUX:
-							if (nativesLinux != null) {
-								Files.copy(new URL(nativesLinux.url).openStream(), new File(natives, nativesLinux.path.replaceAll("/", "\\.")).toPath(), StandardCopyOption.REPLACE_EXISTING);
-								Utils.unzipFileAndDelete(natives, nativesLinux.path.replaceAll("/", "\\."), "natives");
-							}
-							break;
-						case OSX:
-							if (nativesOsx != null) {
-								Files.copy(new URL(nativesOsx.url).openStream(), new File(natives, nativesOsx.path.replaceAll("/", "\\.")).toPath(), StandardCopyOption.REPLACE_EXISTING);
-								Utils.unzipFileAndDelete(natives, nativesOsx.path.replaceAll("/", "\\."), "natives");
-							}
-							break;
+					for (NativesDownload nativesDownload : findNatives(library.downloads.classifiers, os)) {
+						final String name = nativesDownload.path.replaceAll("/", "\\.");
+						final URL url = new URL(nativesDownload.url);
+						scheduler.submit(url, () -> Utils.unzipStream(store.open(url, nativesDownload.sha1), natives, "natives: " + name));
 					}
 				}
 			}
-		} catch (Exception e) {
-			// rethrow exceptions
-			throw new ConnectionException("Error downloading dependencies", e);
-		}
-		// Fetch dependencies for Forge
-		System.out.println(String.format("[GameDownloader] Downloading Dependencies for Forge version %s", forgeversions.id));
-		List<de.pfannekuchen.forgenogradle.gson.jsonforge.Library> dependencies2 = forgeversions.libraries;
-		System.out.println(String.format("[GameDownloader] Fetched %d forge dependencies", dependencies2.size()));
-		/* Download Forge Dependencies */
-		try {
 			for (de.pfannekuchen.forgenogradle.gson.jsonforge.Library library : dependencies2) {
 				// Download the artifact
 				if (!library.downloads.artifact.url.isEmpty()) {
-					Files.copy(new URL(library.downloads.artifact.url).openStream(), new File(libs, library.downloads.artifact.path.replaceAll("/", "\\.")).toPath(), StandardCopyOption.REPLACE_EXISTING);
-					System.out.println(String.format("[GameDownloader] Downloading %s...", library.downloads.artifact.path.replaceAll("/", "\\.")));
+					final String name = library.downloads.artifact.path.replaceAll("/", "\\.");
+					final String sha1 = library.downloads.artifact.sha1;
+					final URL url = new URL(library.downloads.artifact.url);
+					scheduler.submit(url, () -> store.fetch(url, sha1, new File(libs, name)));
 				}
 			}
-		} catch (Exception e) {
+			// Wait for all libraries to finish
+			scheduler.await();
+		} catch (MalformedURLException e) {
 			// rethrow exceptions
-			throw new ConnectionException("Error downloading forge dependencies", e);
+			throw new ConnectionException("Error downloading dependencies", e);
+		} finally {
+			// never leave the download threads running after a failure
+			scheduler.shutdown();
+			phase.end();
 		}
-		/* Download the Game Assets */
+	}
+	
+	/**
+	 * Synchronizes the game assets with the asset index, only downloading missing or corrupt objects
+	 * @param in Json to go off
+	 * @param assets Json to go off
+	 * @param assetIndex Raw asset index json
+	 * @param assetsdir Output Folder for assets
+	 * @param store Machine-wide store for all files with a known hash
+	 * @param hosts Permits per host, shared by all workspaces
+	 */
+	public static void downloadAssets(VersionJson in, AssetsJson assets, File assetIndex, File assetsdir, ArtifactStore store, HostPermits hosts) {
+		System.out.println(String.format("[GameDownloader] Synchronizing Assets..."));
+		final Progress.Phase phase = Progress.begin("Assets");
+		final DownloadScheduler scheduler = new DownloadScheduler(DOWNLOAD_THREADS, hosts, phase);
 		try {
-			System.out.println(String.format("[GameDownloader] Downloading Assets..."));
-			ExecutorService e = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()); // create an executor with the system cores
-			for (Entry<String, Asset> library : assets.objects.entrySet()) {
-				e.execute(() -> {
-					try {
-						// Find URL and outFile
-						final URL url = new URL("https://resources.download.minecraft.net/" + library.getValue().hash.substring(0, 2) + "/" + library.getValue().hash);
-						final File outFile = new File(new File(assetsdir, "objects"), library.getValue().hash.substring(0, 2) + "/" + library.getValue().hash);
-						outFile.getParentFile().mkdirs();
-						// Download the file
-						System.out.println(String.format("[GameDownloader] Downloading %s...", outFile.getName()));
-						Files.copy(url.openStream(), outFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-					} catch (IOException e1) {
-						e1.printStackTrace();
-					}
-				});
-			}
-			// Wait for tasks to finish
-			e.shutdown();
-			while (!e.awaitTermination(200L, TimeUnit.MILLISECONDS)) {}
-			// Download the indexes json
+			new AssetSync(assetsdir, store).sync(assets, scheduler);
+		} finally {
+			scheduler.shutdown();
+			phase.end();
+		}
+		try {
+			// Copy the raw indexes json
 			File indexes = new File(assetsdir, "indexes");
 			indexes.mkdirs();
-			Files.copy(new ByteArrayInputStream(new Gson().toJson(assets).getBytes(StandardCharsets.UTF_8)), new File(indexes, in.assetIndex.id + ".json").toPath(), StandardCopyOption.REPLACE_EXISTING);
-		} catch (Exception e) {
+			Files.copy(assetIndex.toPath(), new File(indexes, in.assetIndex.id + ".json").toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
 			throw new ConnectionException("Error downloading assets", e);
 		}
 	}
 
 	/**
-	 * Removes dependencies from list following mojangs given rules
+	 * Verifies all downloaded libraries and assets and repairs the ones that are missing or corrupt
+	 * @param in Json to go off
+	 * @param forgeversions Json to go off
+	 * @param assets Json to go off
+	 * @param libs Folder with dependencies
+	 * @param assetsdir Folder with assets
+	 * @param store Machine-wide store for all files with a known hash
+	 * @param hosts Permits per host, shared by all workspaces
+	 */
+	public static void verifyDeps(VersionJson in, ForgeVersionJson forgeversions, AssetsJson assets, File libs, File assetsdir, ArtifactStore store, HostPermits hosts) {
+		System.out.println(String.format("[GameDownloader] Verifying Dependencies and Assets for Minecraft version %s", in.id));
+		final List<WorkspaceVerifier.Entry> entries = new ArrayList<>();
+		try {
+			// Collect all files with a known hash
+			for (Library library : sortOutDependencies(in.libraries, Utils.getOs())) {
+				if (library.downloads.artifact == null || library.downloads.artifact.sha1 == null) continue;
+				entries.add(new WorkspaceVerifier.Entry(new URL(library.downloads.artifact.url), library.downloads.artifact.sha1, new File(libs, library.downloads.artifact.path.replaceAll("/", "\\."))));
+			}
+			for (de.pfannekuchen.forgenogradle.gson.jsonforge.Library library : forgeversions.libraries) {
+				if (library.downloads.artifact.url.isEmpty() || library.downloads.artifact.sha1 == null || library.downloads.artifact.sha1.isEmpty()) continue;
+				entries.add(new WorkspaceVerifier.Entry(new URL(library.downloads.artifact.url), library.downloads.artifact.sha1, new File(libs, library.downloads.artifact.path.replaceAll("/", "\\."))));
+			}
+			final File objects = new File(assetsdir, "objects");
+			final Set<String> hashes = new HashSet<>();
+			for (int i = 0; i < assets.size(); i++) {
+				final String hash = assets.getHash(i);
+				if (!hashes.add(hash)) continue;
+				entries.add(new WorkspaceVerifier.Entry(new URL(AssetSync.RESOURCES_URL + hash.substring(0, 2) + "/" + hash), hash, new File(objects, hash.substring(0, 2) + "/" + hash)));
+			}
+		} catch (MalformedURLException e) {
+			// rethrow exceptions
+			throw new ConnectionException("Error verifying dependencies", e);
+		}
+		final Progress.Phase phase = Progress.begin("Verify");
+		final DownloadScheduler scheduler = new DownloadScheduler(DOWNLOAD_THREADS, hosts, phase);
+		int repaired;
+		try {
+			repaired = new WorkspaceVerifier(store).verify(entries, scheduler);
+		} finally {
+			scheduler.shutdown();
+			phase.end();
+		}
+		System.out.println(String.format("[GameDownloader] Repaired %d files", repaired));
+	}
+	
+	/**
+	 * Picks the natives of a library required on the given operating system
+	 * @param classifiers Natives of the library
+	 * @param os Operating System
+	 * @return Natives to download
+	 */
+	private static List<NativesDownload> findNatives(Classifiers classifiers, Os os) {
+		List<NativesDownload> found = new ArrayList<>();
+		switch (os) {
+			case WIN64:
+				if (classifiers.nativesWindows64 != null) found.add(classifiers.nativesWindows64);
+				if (classifiers.nativesWindows != null) found.add(classifiers.nativesWindows);
+				break;
+			case WIN32:
+				if (classifiers.nativesWindows32 != null) found.add(classifiers.nativesWindows32);
+				if (classifiers.nativesWindows != null) found.add(classifiers.nativesWindows);
+				break;
+			case LINUX:
+				if (classifiers.nativesLinux != null) found.add(classifiers.nativesLinux);
+				break;
+			case OSX:
+				if (classifiers.nativesOsx != null) found.add(classifiers.nativesOsx);
+				break;
+		}
+		return found;
+	}
+	
+	/**
+	 * Sorts out dependencies following mojangs given rules without modifying the list, which is shared by all workspaces
 	 * @param in In List
 	 * @param os Operating System
-	 * @return Sorted List
+	 * @return New list with the allowed dependencies
 	 */
-	private static List<Library> sortOutDependencies(List<Library> in, Os os) {
-		// remove unwanted dependencies based on mojangs rule system
-		DEPENDENCYLOOP: for (Library library : new ArrayList<>(in)) {
+	static List<Library> sortOutDependencies(List<Library> in, Os os) {
+		final List<Library> out = new ArrayList<>(in.size());
+		// keep wanted dependencies based on mojangs rule system
+		DEPENDENCYLOOP: for (Library library : in) {
 			if (library.rules != null) {
 				// check rules
 				boolean shouldBeAllowedByDefault = false;
@@ -175,21 +226,22 @@ public class GameDownloader {
 					}
 					// depends on OS
 					if ("windows".equals(rule.os.name) && (os == Os.WIN32 || os == Os.WIN64)) {
-						if (!action) in.remove(library);
+						if (action) out.add(library);
 						continue DEPENDENCYLOOP;
 					} else if ("osx".equals(rule.os.name) && os == Os.OSX) {
-						if (!action) in.remove(library);
+						if (action) out.add(library);
 						continue DEPENDENCYLOOP;
 					} else if ("linux".equals(rule.os.name) && os == Os.LINUX) {
-						if (!action) in.remove(library);
+						if (action) out.add(library);
 						continue DEPENDENCYLOOP;
 					}
 				}
-				// remove if failed
-				if (!shouldBeAllowedByDefault) in.remove(library);
-			}	
+				// skip if failed
+				if (!shouldBeAllowedByDefault) continue;
+			}
+			out.add(library);
 		}
-		return in;
+		return out;
 	}
 	
 }
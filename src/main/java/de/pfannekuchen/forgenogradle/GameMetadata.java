@@ -0,0 +1,131 @@
+package de.pfannekuchen.forgenogradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+
+import de.pfannekuchen.forgenogradle.download.MetadataCache;
+import de.pfannekuchen.forgenogradle.exceptions.ConnectionException;
+import de.pfannekuchen.forgenogradle.gson.json.VersionJson;
+import de.pfannekuchen.forgenogradle.gson.jsonassets.AssetsJson;
+import de.pfannekuchen.forgenogradle.gson.jsonforge.ForgeVersionJson;
+
+/**
+ * Parsed version, forge and asset jsons, fetched once and shared by all workspaces
+ * @author agent
+ */
+public class GameMetadata {
+
+	/**
+	 * Url for the version json
+	 */
+	public static final String VERSION_URL = "https://launchermeta.mojang.com/v1/packages/f07e0f1228f79b9b04313fc5640cd952474ba6f5/" + WorkspaceConfig.VERSION + ".json";
+	
+	/**
+	 * Url for the forge dependency json
+	 */
+	public static final String FORGE_URL = "https://data.mgnet.work/forge/" + WorkspaceConfig.VERSION + ".json";
+	
+	/**
+	 * Version of ForgeNoGradle, invalidating all outputs when it changes
+	 */
+	public static final String TOOL_VERSION = String.valueOf(GameMetadata.class.getPackage().getImplementationVersion());
+	
+	/**
+	 * Minecraft version json
+	 */
+	public final VersionJson versions;
+	
+	/**
+	 * Forge dependency json
+	 */
+	public final ForgeVersionJson forgeversions;
+	
+	/**
+	 * Asset index of the version
+	 */
+	public final AssetsJson assets;
+	
+	/**
+	 * Raw asset index json, as cached by the metadata cache
+	 */
+	public final File assetIndex;
+	
+	/**
+	 * Inputs shared by all outputs: tool version and the hashes of the version and forge json
+	 */
+	public final String fingerprint;
+	
+	/**
+	 * Parses a json from a stream
+	 */
+	@FunctionalInterface
+	private static interface Parser<T> {
+		
+		T parse(JsonReader reader) throws IOException;
+		
+	}
+	
+	private GameMetadata(VersionJson versions, ForgeVersionJson forgeversions, AssetsJson assets, File assetIndex, String fingerprint) {
+		this.versions = versions;
+		this.forgeversions = forgeversions;
+		this.assets = assets;
+		this.assetIndex = assetIndex;
+		this.fingerprint = fingerprint;
+	}
+	
+	/**
+	 * Downloads and parses the 3 jsons containing all dependencies and assets, straight from their streams
+	 * @param cache Cache revalidating the jsons
+	 * @return Parsed metadata
+	 */
+	public static GameMetadata fetch(MetadataCache cache) {
+		final Gson gson = new Gson();
+		URL url = null;
+		try {
+			final MessageDigest versionsDigest = Utils.sha1();
+			final MessageDigest forgeversionsDigest = Utils.sha1();
+			VersionJson versions = read(cache, url = new URL(VERSION_URL), versionsDigest, reader -> gson.fromJson(reader, VersionJson.class));
+			ForgeVersionJson forgeversions = read(cache, url = new URL(FORGE_URL), forgeversionsDigest, reader -> gson.fromJson(reader, ForgeVersionJson.class));
+			AssetsJson assets = read(cache, url = new URL(versions.assetIndex.url), null, AssetsJson::read);
+			String fingerprint = TOOL_VERSION + "\n" + Utils.toHex(versionsDigest.digest()) + "\n" + Utils.toHex(forgeversionsDigest.digest());
+			return new GameMetadata(versions, forgeversions, assets, cache.locate(url), fingerprint);
+		} catch (JsonParseException | IOException e) {
+	    	// catch exceptions and rethrow them properly
+			throw new ConnectionException("Failed downloading: " + url, e);
+		}
+	}
+	
+	/**
+	 * Parses a json while it is downloaded
+	 * @param cache Cache revalidating the json
+	 * @param url Url of the json
+	 * @param digest Digest to update with the raw json or null
+	 * @param parser Parser for the json
+	 * @return Parsed json
+	 * @throws IOException Unable to read or parse the json
+	 */
+	private static <T> T read(MetadataCache cache, URL url, MessageDigest digest, Parser<T> parser) throws IOException {
+		final InputStream source = cache.open(url);
+		try (InputStream in = digest == null ? source : new DigestInputStream(source, digest)) {
+			T parsed = parser.parse(new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+			if (parsed == null) throw new IOException("Empty json: " + url.toString());
+			// the reader may stop early, but the digest has to cover the whole json
+			final byte[] rest = new byte[8192];
+			while (in.read(rest) != -1);
+			// only a json that could be parsed is cached
+			cache.commit(source);
+			return parsed;
+		}
+	}
+	
+}
@@ -0,0 +1,68 @@
+package de.pfannekuchen.forgenogradle;
+
+import java.io.PrintStream;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Renders progress as one JSON object per line, meant to be read by scripts provisioning workspaces unattended
+ * @author agent
+ */
+public class JsonLinesRenderer implements Progress.Renderer {
+
+	/**
+	 * Stream the events are written to
+	 */
+	private final PrintStream out;
+	
+	/**
+	 * Creates a renderer writing to a stream
+	 * @param out Stream to write the events to
+	 */
+	public JsonLinesRenderer(PrintStream out) {
+		this.out = out;
+	}
+	
+	/**
+	 * Writes a progress event: workspace, phase, files, bytes, failures, elapsed milliseconds and whether the phase finished
+	 */
+	@Override
+	public void render(Progress.Phase phase) {
+		final JsonObject event = new JsonObject();
+		event.addProperty("event", "progress");
+		if (phase.getWorkspace() != null) event.addProperty("workspace", phase.getWorkspace());
+		event.addProperty("phase", phase.getName());
+		event.addProperty("files", phase.getFiles());
+		event.addProperty("bytes", phase.getBytes());
+		event.addProperty("failures", phase.getFailures());
+		event.addProperty("elapsed", phase.getElapsed() / 1000000L);
+		event.addProperty("finished", phase.isFinished());
+		write(event);
+	}
+	
+	/**
+	 * Writes the final event of the run
+	 * @param code Exit code of the program
+	 * @param error Error the program failed with or null
+	 */
+	public void exit(int code, Throwable error) {
+		final JsonObject event = new JsonObject();
+		event.addProperty("event", "exit");
+		event.addProperty("code", code);
+		if (error != null) {
+			event.addProperty("error", error.getClass().getSimpleName());
+			event.addProperty("message", String.valueOf(error.getMessage()));
+		}
+		write(event);
+	}
+	
+	/**
+	 * Writes a single event as one line
+	 * @param event Event to write
+	 */
+	private synchronized void write(JsonObject event) {
+		out.println(event.toString());
+		out.flush();
+	}
+	
+}
@@ -0,0 +1,273 @@
+package de.pfannekuchen.forgenogradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Performance metrics of a single provisioning run: every phase with its downloads, plus timers for expensive filesystem work
+ * @author agent
+ */
+public class Metrics {
+
+	/**
+	 * Latency histogram with power of two millisecond buckets, updated without locks
+	 */
+	public static final class Histogram {
+		
+		/**
+		 * Bucket 0 counts everything below 1 ms, bucket i everything below 2^i ms
+		 */
+		private final LongAdder[] buckets = new LongAdder[32];
+		private final LongAdder count = new LongAdder();
+		private final LongAdder total = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+		
+		Histogram() {
+			for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+		}
+		
+		/**
+		 * Records a latency
+		 * @param nanos Latency in nanoseconds
+		 */
+		public void record(long nanos) {
+			final long millis = Math.max(0, nanos / 1000000L);
+			buckets[Math.min(buckets.length - 1, 64 - Long.numberOfLeadingZeros(millis))].increment();
+			count.increment();
+			total.add(nanos);
+			max.accumulate(nanos);
+		}
+		
+		public long getCount() {
+			return count.sum();
+		}
+		
+		/**
+		 * Estimates a percentile by the upper bound of its bucket
+		 * @param percentile Percentile between 0 and 1
+		 * @return Upper bound of the percentile in milliseconds
+		 */
+		public long getPercentile(double percentile) {
+			final long target = (long) Math.ceil(getCount() * percentile);
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i].sum();
+				if (seen >= target && seen > 0) return 1L << i;
+			}
+			return 0;
+		}
+		
+		/**
+		 * @return Histogram as json
+		 */
+		JsonObject toJson() {
+			final JsonObject json = new JsonObject();
+			json.addProperty("count", getCount());
+			json.addProperty("meanMillis", getCount() == 0 ? 0 : total.sum() / getCount() / 1.0E6);
+			json.addProperty("p50Millis", getPercentile(0.5));
+			json.addProperty("p90Millis", getPercentile(0.9));
+			json.addProperty("p99Millis", getPercentile(0.99));
+			json.addProperty("maxMillis", max.get() / 1.0E6);
+			final JsonArray histogram = new JsonArray();
+			for (int i = 0; i < buckets.length; i++) {
+				if (buckets[i].sum() == 0) continue;
+				final JsonObject bucket = new JsonObject();
+				bucket.addProperty("belowMillis", 1L << i);
+				bucket.addProperty("count", buckets[i].sum());
+				histogram.add(bucket);
+			}
+			json.add("buckets", histogram);
+			return json;
+		}
+		
+	}
+	
+	/**
+	 * Total time spent in an operation
+	 */
+	private static final class Timer {
+		
+		final LongAdder count = new LongAdder();
+		final LongAdder nanos = new LongAdder();
+		
+	}
+	
+	/**
+	 * Metrics of every thread
+	 */
+	private static final ThreadLocal<Metrics> CURRENT = new ThreadLocal<>();
+	
+	/**
+	 * Name of the measured workspace
+	 */
+	private final String workspace;
+	
+	/**
+	 * Name of the command, such as provision or verify
+	 */
+	private final String command;
+	
+	/**
+	 * Start of the run in nanoseconds
+	 */
+	private final long started = System.nanoTime();
+	
+	/**
+	 * End of the run in nanoseconds or -1
+	 */
+	private volatile long finished = -1;
+	
+	/**
+	 * Every phase started during the run
+	 */
+	private final List<Progress.Phase> phases = new CopyOnWriteArrayList<>();
+	
+	/**
+	 * Timers of all measured operations by their name
+	 */
+	private final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+	
+	private Metrics(String workspace, String command) {
+		this.workspace = workspace;
+		this.command = command;
+	}
+	
+	/**
+	 * Starts measuring a run and binds it to the current thread
+	 * @param workspace Name of the workspace
+	 * @param command Name of the command
+	 * @return New metrics
+	 */
+	public static Metrics begin(String workspace, String command) {
+		final Metrics metrics = new Metrics(workspace, command);
+		CURRENT.set(metrics);
+		return metrics;
+	}
+	
+	/**
+	 * @return Metrics of the current thread, or of the phase the current thread works on, or null
+	 */
+	public static Metrics current() {
+		final Metrics metrics = CURRENT.get();
+		if (metrics != null) return metrics;
+		final Progress.Phase phase = Progress.current();
+		return phase != null ? phase.getMetrics() : null;
+	}
+	
+	/**
+	 * Adds the time since the start of an operation to its timer in the current metrics
+	 * @param operation Name of the operation
+	 * @param start Start of the operation as returned by {@link System#nanoTime()}
+	 */
+	public static void time(String operation, long start) {
+		final Metrics metrics = current();
+		if (metrics == null) return;
+		final Timer timer = metrics.timers.computeIfAbsent(operation, o -> new Timer());
+		timer.count.increment();
+		timer.nanos.add(System.nanoTime() - start);
+	}
+	
+	/**
+	 * @return Time since the start of the run in nanoseconds
+	 */
+	public long getElapsed() {
+		return (finished != -1 ? finished : System.nanoTime()) - started;
+	}
+	
+	/**
+	 * Registers a phase that has been started with these metrics bound
+	 * @param phase Started phase
+	 */
+	void add(Progress.Phase phase) {
+		phases.add(phase);
+	}
+	
+	/**
+	 * Finishes the run, writes the report and prints a summary, never failing the run itself
+	 * @param report File to write the json report to
+	 * @param success Whether the run succeeded
+	 */
+	public void end(File report, boolean success) {
+		finished = System.nanoTime();
+		if (CURRENT.get() == this) CURRENT.remove();
+		// Print the summary
+		long files = 0, bytes = 0, retries = 0, failures = 0;
+		Progress.Phase slowest = null;
+		for (Progress.Phase phase : phases) {
+			files += phase.getFiles();
+			bytes += phase.getBytes();
+			retries += phase.getRetries();
+			failures += phase.getFailures();
+			if (slowest == null || phase.getElapsed() > slowest.getElapsed()) slowest = phase;
+		}
+		System.out.println(String.format("[Metrics] %s %s %s in %.2f seconds: %d files, %.2f MB, %d retries, %d failures%s", command, workspace, success ? "finished" : "failed", (finished - started) / 1.0E9, files, bytes / 1048576.0, retries, failures, slowest != null ? String.format(", slowest phase %s with %.2f seconds", slowest.getName(), slowest.getElapsed() / 1.0E9) : ""));
+		for (Map.Entry<String, Timer> timer : timers.entrySet()) 
+			System.out.println(String.format("[Metrics]     %s: %d calls, %.2f seconds", timer.getKey(), timer.getValue().count.sum(), timer.getValue().nanos.sum() / 1.0E9));
+		
+		// Write the report, but never create a workspace just for it
+		if (!report.getParentFile().exists()) {
+			System.out.println(String.format("[Metrics] Skipped writing report %s, the folder does not exist", report.getAbsolutePath()));
+			return;
+		}
+		final File temp = new File(report.getParentFile(), report.getName() + ".tmp");
+		try {
+			Files.write(temp.toPath(), new GsonBuilder().setPrettyPrinting().create().toJson(toJson(success)).getBytes(StandardCharsets.UTF_8));
+			Files.move(temp.toPath(), report.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// a missing report must not hide the outcome of the run
+			System.err.println(String.format("[Metrics] Unable to write report %s: %s", report.getAbsolutePath(), e.getMessage()));
+		}
+	}
+	
+	/**
+	 * @param success Whether the run succeeded
+	 * @return Report as json
+	 */
+	private JsonObject toJson(boolean success) {
+		final JsonObject json = new JsonObject();
+		json.addProperty("version", GameMetadata.TOOL_VERSION);
+		json.addProperty("workspace", workspace);
+		json.addProperty("command", command);
+		json.addProperty("success", success);
+		json.addProperty("timestamp", System.currentTimeMillis());
+		json.addProperty("elapsedMillis", (finished - started) / 1000000L);
+		final JsonArray phases = new JsonArray();
+		for (Progress.Phase phase : this.phases) {
+			final JsonObject p = new JsonObject();
+			p.addProperty("name", phase.getName());
+			p.addProperty("elapsedMillis", phase.getElapsed() / 1000000L);
+			p.addProperty("files", phase.getFiles());
+			p.addProperty("bytes", phase.getBytes());
+			p.addProperty("bytesPerSecond", (long) phase.getThroughput());
+			p.addProperty("failures", phase.getFailures());
+			p.addProperty("retries", phase.getRetries());
+			p.add("requests", phase.getRequests().toJson());
+			p.add("downloads", phase.getDownloads().toJson());
+			phases.add(p);
+		}
+		json.add("phases", phases);
+		final JsonObject timers = new JsonObject();
+		for (Map.Entry<String, Timer> timer : this.timers.entrySet()) {
+			final JsonObject t = new JsonObject();
+			t.addProperty("calls", timer.getValue().count.sum());
+			t.addProperty("millis", timer.getValue().nanos.sum() / 1000000L);
+			timers.add(timer.getKey(), t);
+		}
+		json.add("timers", timers);
+		return json;
+	}
+	
+}
@@ -0,0 +1,314 @@
+package de.pfannekuchen.forgenogradle;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Progress of all running phases, updated by workers without locks and rendered by a single reporter thread at a fixed rate
+ * @author agent
+ */
+public class Progress {
+
+	/**
+	 * Interval between two renders of the reporter in milliseconds
+	 */
+	private static final long RENDER_INTERVAL = 500L;
+	
+	/**
+	 * Renders the state of a phase, called by the reporter thread whenever a phase made progress and once when it ends
+	 */
+	@FunctionalInterface
+	public static interface Renderer {
+		
+		void render(Phase phase);
+		
+	}
+	
+	/**
+	 * Renderer printing a human readable line to stdout
+	 */
+	public static final Renderer CONSOLE = phase -> System.out.println(phase.render());
+	
+	/**
+	 * Renderer used for all phases
+	 */
+	private static volatile Renderer renderer = CONSOLE;
+	
+	/**
+	 * A phase of the program, such as downloading the assets
+	 */
+	public static final class Phase {
+		
+		private final String name;
+		private final String workspace = SCOPE.get();
+		private final long started = System.nanoTime();
+		private final LongAdder files = new LongAdder();
+		private final LongAdder bytes = new LongAdder();
+		private final LongAdder failures = new LongAdder();
+		private final LongAdder retries = new LongAdder();
+		private final Metrics.Histogram requests = new Metrics.Histogram();
+		private final Metrics.Histogram downloads = new Metrics.Histogram();
+		private final Metrics metrics = Metrics.current();
+		private volatile long finished = -1;
+		private long rendered = -1;
+		
+		private Phase(String name) {
+			this.name = name;
+		}
+		
+		/**
+		 * Counts a finished file
+		 */
+		public void file() {
+			files.increment();
+		}
+		
+		/**
+		 * Counts transferred bytes
+		 * @param amount Amount of bytes
+		 */
+		public void bytes(long amount) {
+			bytes.add(amount);
+		}
+		
+		/**
+		 * Counts a failed file
+		 */
+		public void failure() {
+			failures.increment();
+		}
+		
+		/**
+		 * Counts a retried request
+		 */
+		public void retry() {
+			retries.increment();
+		}
+		
+		/**
+		 * Records the time until a server responded
+		 * @param nanos Latency in nanoseconds
+		 */
+		public void request(long nanos) {
+			requests.record(nanos);
+		}
+		
+		/**
+		 * Records the time a whole download took
+		 * @param nanos Duration in nanoseconds
+		 */
+		public void download(long nanos) {
+			downloads.record(nanos);
+		}
+		
+		/**
+		 * Makes this the phase of the current thread, which bytes read through {@link Progress#count(InputStream)} are counted towards
+		 */
+		public void bind() {
+			CURRENT.set(this);
+		}
+		
+		/**
+		 * Finishes the phase and renders its summary
+		 */
+		public void end() {
+			if (finished != -1) return;
+			finished = System.nanoTime();
+			PHASES.remove(this);
+			if (CURRENT.get() == this) CURRENT.remove();
+			renderer.render(this);
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		/**
+		 * @return Workspace the phase belongs to or null if only one workspace is provisioned
+		 */
+		public String getWorkspace() {
+			return workspace;
+		}
+		
+		public long getFiles() {
+			return files.sum();
+		}
+		
+		public long getBytes() {
+			return bytes.sum();
+		}
+		
+		public long getFailures() {
+			return failures.sum();
+		}
+		
+		public long getRetries() {
+			return retries.sum();
+		}
+		
+		public Metrics.Histogram getRequests() {
+			return requests;
+		}
+		
+		public Metrics.Histogram getDownloads() {
+			return downloads;
+		}
+		
+		/**
+		 * @return Metrics the phase is reported to or null
+		 */
+		public Metrics getMetrics() {
+			return metrics;
+		}
+		
+		public boolean isFinished() {
+			return finished != -1;
+		}
+		
+		/**
+		 * @return Elapsed time of the phase in nanoseconds
+		 */
+		public long getElapsed() {
+			return (finished != -1 ? finished : System.nanoTime()) - started;
+		}
+		
+		/**
+		 * @return Throughput of the phase in bytes per second
+		 */
+		public double getThroughput() {
+			return getBytes() / Math.max(getElapsed() / 1.0E9, 0.001);
+		}
+		
+		/**
+		 * Renders the phase as a single line
+		 * @return Rendered line
+		 */
+		private String render() {
+			return String.format("[Progress] %s%s%s: %d files, %.2f MB, %d failures, %.2f MB/s%s", workspace != null ? workspace + "/" : "", name, finished != -1 ? " finished" : "", getFiles(), getBytes() / 1048576.0, getFailures(), getThroughput() / 1048576.0, finished != -1 ? String.format(" in %.2f seconds", getElapsed() / 1.0E9) : "");
+		}
+		
+	}
+	
+	/**
+	 * Phases that are currently running
+	 */
+	private static final List<Phase> PHASES = new CopyOnWriteArrayList<>();
+	
+	/**
+	 * Phase of every thread
+	 */
+	private static final ThreadLocal<Phase> CURRENT = new ThreadLocal<>();
+	
+	/**
+	 * Workspace every thread is working on
+	 */
+	private static final ThreadLocal<String> SCOPE = new ThreadLocal<>();
+	
+	/**
+	 * Reporter thread rendering all running phases
+	 */
+	private static Thread reporter;
+	
+	/**
+	 * Replaces the renderer of all phases
+	 * @param renderer New renderer
+	 */
+	public static void setRenderer(Renderer renderer) {
+		Progress.renderer = renderer;
+	}
+	
+	/**
+	 * Starts a new phase and binds it to the current thread
+	 * @param name Name of the phase
+	 * @return New phase
+	 */
+	public static Phase begin(String name) {
+		final Phase phase = new Phase(name);
+		PHASES.add(phase);
+		if (phase.metrics != null) phase.metrics.add(phase);
+		phase.bind();
+		startReporter();
+		return phase;
+	}
+	
+	/**
+	 * Sets the workspace all phases started by the current thread belong to
+	 * @param workspace Name of the workspace or null
+	 */
+	public static void scope(String workspace) {
+		if (workspace == null) SCOPE.remove();
+		else SCOPE.set(workspace);
+	}
+	
+	/**
+	 * @return Phase of the current thread or null
+	 */
+	public static Phase current() {
+		return CURRENT.get();
+	}
+	
+	/**
+	 * Unbinds the phase of the current thread
+	 */
+	public static void unbind() {
+		CURRENT.remove();
+	}
+	
+	/**
+	 * Counts all bytes read from a stream towards the phase of the reading thread
+	 * @param in Stream to count
+	 * @return Counting stream
+	 */
+	public static InputStream count(InputStream in) {
+		return new FilterInputStream(in) {
+			@Override
+			public int read() throws IOException {
+				int read = super.read();
+				if (read != -1) add(1);
+				return read;
+			}
+			
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int read = super.read(b, off, len);
+				if (read > 0) add(read);
+				return read;
+			}
+			
+			private void add(long amount) {
+				Phase phase = CURRENT.get();
+				if (phase != null) phase.bytes(amount);
+			}
+		};
+	}
+	
+	/**
+	 * Starts the reporter thread unless it is already running
+	 */
+	private static synchronized void startReporter() {
+		if (reporter != null) return;
+		reporter = new Thread(() -> {
+			try {
+				while (true) {
+					Thread.sleep(RENDER_INTERVAL);
+					// only render phases that made progress since the last render
+					for (Phase phase : PHASES) {
+						long state = phase.getFiles() + phase.getBytes() + phase.getFailures();
+						if (state == phase.rendered) continue;
+						phase.rendered = state;
+						renderer.render(phase);
+					}
+				}
+			} catch (InterruptedException e) {
+				// exit quietly
+			}
+		}, "Progress");
+		reporter.setDaemon(true);
+		reporter.start();
+	}
+	
+}
@@ -0,0 +1,160 @@
+package de.pfannekuchen.forgenogradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import de.pfannekuchen.forgenogradle.download.ArtifactStore;
+import de.pfannekuchen.forgenogradle.download.DownloadScheduler;
+import de.pfannekuchen.forgenogradle.download.HostPermits;
+import de.pfannekuchen.forgenogradle.download.MetadataCache;
+
+/**
+ * State shared by all workspaces provisioned by one run: the parsed metadata in memory, the artifact store on disk, the connection limits per host and every output produced without a known hash
+ * @author agent
+ */
+public class ProvisioningContext {
+
+	/**
+	 * Maximum amount of concurrent downloads from a single host, across all workspaces
+	 */
+	private static final int DOWNLOADS_PER_HOST = 8;
+	
+	/**
+	 * Machine-wide artifact store shared by all workspaces
+	 */
+	private final ArtifactStore store;
+	
+	/**
+	 * Machine-wide cache of the metadata jsons
+	 */
+	private final MetadataCache cache;
+	
+	/**
+	 * Permits per host, shared by the downloads of all workspaces
+	 */
+	private final HostPermits hosts = new HostPermits(DOWNLOADS_PER_HOST);
+	
+	/**
+	 * Metadata, fetched by the first workspace that needs it
+	 */
+	private GameMetadata metadata;
+	
+	/**
+	 * Outputs that have been produced by a workspace, by their key
+	 */
+	private final ConcurrentHashMap<String, CompletableFuture<File>> outputs = new ConcurrentHashMap<>();
+	
+	/**
+	 * Creates a new context
+	 * @param store Machine-wide artifact store
+	 * @param cache Machine-wide cache of the metadata jsons
+	 */
+	public ProvisioningContext(ArtifactStore store, MetadataCache cache) {
+		this.store = store;
+		this.cache = cache;
+	}
+	
+	public ArtifactStore getStore() {
+		return store;
+	}
+	
+	public HostPermits getHosts() {
+		return hosts;
+	}
+	
+	/**
+	 * @return Parsed metadata, fetched in a phase of the first workspace that calls this
+	 */
+	public synchronized GameMetadata getMetadata() {
+		if (metadata == null) {
+			final Progress.Phase phase = Progress.begin("Metadata");
+			try {
+				metadata = GameMetadata.fetch(cache);
+			} finally {
+				phase.end();
+			}
+		}
+		return metadata;
+	}
+	
+	/**
+	 * Produces an output once per run: the first workspace runs the job, every other workspace links or copies the result
+	 * @param key Key of the output, such as its url
+	 * @param target File or folder the job produces in this workspace
+	 * @param job Job producing the output
+	 * @throws IOException Producing or copying the output failed
+	 */
+	public void produce(String key, File target, DownloadScheduler.Job job) throws IOException {
+		final CompletableFuture<File> produced = new CompletableFuture<>();
+		final CompletableFuture<File> existing = outputs.putIfAbsent(key, produced);
+		if (existing == null) {
+			try {
+				job.run();
+				produced.complete(target);
+			} catch (IOException | RuntimeException e) {
+				// let the next workspace try again
+				outputs.remove(key, produced);
+				produced.completeExceptionally(e);
+				throw e;
+			}
+			return;
+		}
+		final File source;
+		try {
+			source = existing.join();
+		} catch (CompletionException e) {
+			// the workspace producing the output failed, so produce it here
+			produce(key, target, job);
+			return;
+		}
+		if (source.equals(target)) return;
+		copy(source.toPath(), target.toPath());
+	}
+	
+	/**
+	 * Hardlinks or copies a file or a folder with all its contents
+	 * @param source File or folder to copy
+	 * @param target Location of the copy
+	 * @throws IOException Copying failed
+	 */
+	private static void copy(Path source, Path target) throws IOException {
+		if (!Files.isDirectory(source)) {
+			link(source, target);
+			return;
+		}
+		try (Stream<Path> files = Files.walk(source)) {
+			Iterator<Path> it = files.iterator();
+			while (it.hasNext()) {
+				Path file = it.next();
+				Path copy = target.resolve(source.relativize(file).toString());
+				if (Files.isDirectory(file)) Files.createDirectories(copy);
+				else link(file, copy);
+			}
+		}
+	}
+	
+	/**
+	 * Hardlinks a file, falling back to a copy across file systems
+	 * @param source File to link
+	 * @param target Location of the link
+	 * @throws IOException Linking and copying failed
+	 */
+	private static void link(Path source, Path target) throws IOException {
+		Files.deleteIfExists(target);
+		try {
+			Files.createLink(target, source);
+		} catch (IOException | UnsupportedOperationException e) {
+			// different file system or no hardlink support
+			Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+}
@@ -0,0 +1,129 @@
+package de.pfannekuchen.forgenogradle;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Text with %NAME% placeholders, parsed once and rendered in a single pass. Values are inserted literally, so paths containing $ or \ are safe
+ * @author agent
+ */
+public class Template {
+	
+	/**
+	 * Text between the placeholders, one more than there are placeholders
+	 */
+	private final String[] literals;
+	
+	/**
+	 * Names of the placeholders in order of appearance
+	 */
+	private final String[] names;
+	
+	private Template(String[] literals, String[] names) {
+		this.literals = literals;
+		this.names = names;
+	}
+	
+	/**
+	 * Parses a template, a placeholder being an upper case name between two percent signs
+	 * @param source Text of the template
+	 * @return Compiled template
+	 */
+	public static Template compile(String source) {
+		final List<String> literals = new ArrayList<>();
+		final List<String> names = new ArrayList<>();
+		int literal = 0;
+		int index = source.indexOf('%');
+		while (index != -1) {
+			// find the end of a possible placeholder
+			int end = index + 1;
+			while (end < source.length() && ((source.charAt(end) >= 'A' && source.charAt(end) <= 'Z') || source.charAt(end) == '_')) end++;
+			if (end < source.length() && end > index + 1 && source.charAt(end) == '%') {
+				literals.add(source.substring(literal, index));
+				names.add(source.substring(index + 1, end));
+				literal = end + 1;
+				index = source.indexOf('%', literal);
+			} else index = source.indexOf('%', index + 1);
+		}
+		literals.add(source.substring(literal));
+		return new Template(literals.toArray(new String[0]), names.toArray(new String[0]));
+	}
+	
+	/**
+	 * Creates the values for a template
+	 * @param namesAndValues Alternating names and values
+	 * @return Values by placeholder name
+	 */
+	public static Map<String, CharSequence> values(CharSequence... namesAndValues) {
+		final Map<String, CharSequence> values = new HashMap<>();
+		for (int i = 0; i < namesAndValues.length; i += 2) values.put(namesAndValues[i].toString(), namesAndValues[i + 1]);
+		return values;
+	}
+	
+	/**
+	 * Renders the template
+	 * @param values Values by placeholder name
+	 * @param out Output to append to
+	 * @throws IOException Unable to append to the output
+	 */
+	public void render(Map<String, ? extends CharSequence> values, Appendable out) throws IOException {
+		for (int i = 0; i < names.length; i++) {
+			out.append(literals[i]);
+			final CharSequence value = values.get(names[i]);
+			if (value == null) throw new IllegalArgumentException("Missing value for %" + names[i] + "%");
+			out.append(value);
+		}
+		out.append(literals[names.length]);
+	}
+	
+	/**
+	 * Renders the template into a string
+	 * @param values Values by placeholder name
+	 * @return Rendered text
+	 */
+	public String render(Map<String, ? extends CharSequence> values) {
+		final StringBuilder builder = new StringBuilder();
+		try {
+			render(values, builder);
+		} catch (IOException e) {
+			// never thrown by a string builder
+			throw new IllegalStateException(e);
+		}
+		return builder.toString();
+	}
+	
+	/**
+	 * Renders the template straight into a file, replacing it atomically only if the content has changed
+	 * @param file File to write
+	 * @param values Values by placeholder name
+	 * @return Whether the file has been written
+	 * @throws IOException Unable to write the file
+	 */
+	public boolean write(File file, Map<String, ? extends CharSequence> values) throws IOException {
+		final File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+		final MessageDigest digest = Utils.sha1();
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(new DigestOutputStream(Files.newOutputStream(temp.toPath()), digest), StandardCharsets.UTF_8))) {
+			render(values, out);
+		}
+		// Leave unchanged files alone, so their timestamps stay the same
+		if (file.isFile() && Utils.toHex(digest.digest()).equals(Utils.sha1(file))) {
+			Files.delete(temp.toPath());
+			return false;
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return true;
+	}
+
+}
@@ -1,26 +1,30 @@
 package de.pfannekuchen.forgenogradle;
 
-import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.net.URL;
-import java.net.URLConnection;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
 import java.util.Locale;
+import java.util.Map;
 
-import de.pfannekuchen.forgenogradle.exceptions.ConnectionException;
-import de.pfannekuchen.forgenogradle.exceptions.ExtractionException;
+import de.pfannekuchen.forgenogradle.download.DownloadException;
+import de.pfannekuchen.forgenogradle.download.Response;
+import de.pfannekuchen.forgenogradle.download.Transport;
+import de.pfannekuchen.forgenogradle.download.UrlConnectionTransport;
 import de.pfannekuchen.forgenogradle.exceptions.FilesystemException;
 import de.pfannekuchen.forgenogradle.exceptions.OperatingSystemException;
-import net.lingala.zip4j.ZipFile;
-import net.lingala.zip4j.exception.ZipException;
-import net.lingala.zip4j.model.FileHeader;
 
 /**
  * Utils for the Project
@@ -28,6 +32,31 @@ import net.lingala.zip4j.model.FileHeader;
  */
 public class Utils {
 
+	/**
+	 * User agent for servers refusing java's default user agent
+	 */
+	public static final String USER_AGENT = "Mozilla/5.0 (aka; mixin download; java downloader)";
+	
+	/**
+	 * Amount of attempts for a request failing with a server or connection error or a download with a mismatching hash
+	 */
+	private static final int DOWNLOAD_ATTEMPTS = 3;
+	
+	/**
+	 * Delay before the second attempt of a failed request in milliseconds, doubling for every further attempt
+	 */
+	private static final long RETRY_BACKOFF = 500L;
+	
+	/**
+	 * Amount of connections kept alive per host
+	 */
+	private static final int CONNECTIONS_PER_HOST = 8;
+	
+	/**
+	 * Transport used for all requests
+	 */
+	private static volatile Transport transport = createTransport();
+
 	/**
 	 * Operating System list out of the most used ones
 	 * @author Pancake
@@ -51,6 +80,112 @@ public class Utils {
 		throw new OperatingSystemException("Unsupported Operating System: " + stringOs);
 	}
 	
+	/**
+	 * Replaces the transport used for all requests
+	 * @param transport New transport
+	 */
+	public static void setTransport(Transport transport) {
+		Utils.transport = transport;
+	}
+	
+	/**
+	 * @return Transport used for all requests
+	 */
+	public static Transport getTransport() {
+		return transport;
+	}
+	
+	/**
+	 * Picks the best transport available on this java version, which can be overridden with -Dfng.transport=urlconnection.
+	 * Also raises the global http.maxConnections property, which url connections only read when the first connection is made
+	 * @return New transport
+	 */
+	private static Transport createTransport() {
+		// keep idle connections alive for every concurrent download of a host, unless the user has set it
+		if (System.getProperty("http.maxConnections") == null) System.setProperty("http.maxConnections", Integer.toString(CONNECTIONS_PER_HOST));
+		if (!"urlconnection".equals(System.getProperty("fng.transport"))) {
+			try {
+				// the http client is only available on java 11 and above
+				Class.forName("java.net.http.HttpClient");
+				return (Transport) Class.forName("de.pfannekuchen.forgenogradle.download.HttpClientTransport").getConstructor().newInstance();
+			} catch (ReflectiveOperationException | LinkageError e) {
+				// fall back to url connections
+			}
+		}
+		return new UrlConnectionTransport();
+	}
+	
+	/**
+	 * Sends a request through the transport, recording the time until the server responded towards the phase of the current thread
+	 * @param url URL
+	 * @param headers Additional request headers
+	 * @return Response, which has to be closed
+	 * @throws IOException Request failed
+	 */
+	public static Response get(URL url, Map<String, String> headers) throws IOException {
+		final long start = System.nanoTime();
+		final Response response = transport.get(url, headers);
+		final Progress.Phase phase = Progress.current();
+		if (phase != null) phase.request(System.nanoTime() - start);
+		return response;
+	}
+	
+	/**
+	 * Opens an input stream through the transport, counting all bytes towards the phase of the reading thread
+	 * @param url URL
+	 * @param headers Additional request headers
+	 * @return URL Stream
+	 * @throws IOException Request failed after all attempts or the server did not respond with a success code
+	 */
+	public static InputStream open(URL url, Map<String, String> headers) throws IOException {
+		for (int attempt = 1; ; attempt++) {
+			try {
+				return openOnce(url, headers);
+			} catch (IOException e) {
+				awaitRetry(url, e, attempt);
+			}
+		}
+	}
+	
+	/**
+	 * Opens an input stream through the transport without retrying
+	 * @param url URL
+	 * @param headers Additional request headers
+	 * @return URL Stream
+	 * @throws IOException Request failed or the server did not respond with a success code
+	 */
+	private static InputStream openOnce(URL url, Map<String, String> headers) throws IOException {
+		Response response = get(url, headers);
+		if (response.getStatus() / 100 != 2) {
+			response.close();
+			throw DownloadException.status(response.getStatus(), "Server responded with " + response.getStatus() + ": " + url.toString());
+		}
+		return Progress.count(response.getBody());
+	}
+	
+	/**
+	 * Decides whether a failed request is attempted again and waits before the next attempt, backing off exponentially
+	 * @param url URL of the request
+	 * @param failure Failure of the last attempt
+	 * @param attempt Number of the last attempt, starting at 1
+	 * @throws IOException The failure, if it is final or the last attempt failed
+	 */
+	public static void awaitRetry(URL url, IOException failure, int attempt) throws IOException {
+		// missing files and refused requests fail the same way every time
+		if (attempt >= DOWNLOAD_ATTEMPTS || failure instanceof FileNotFoundException || failure instanceof InterruptedIOException) throw failure;
+		if (failure instanceof DownloadException && !((DownloadException) failure).isRetryable()) throw failure;
+		final long delay = RETRY_BACKOFF << (attempt - 1);
+		System.err.println(String.format("[Utils] %s, retrying in %d ms", failure.getMessage(), delay));
+		Progress.Phase phase = Progress.current();
+		if (phase != null) phase.retry();
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to retry: " + url.toString());
+		}
+	}
+	
 	/**
 	 * Opens an input stream with a user agent
 	 * @param url URL
@@ -58,9 +193,87 @@ public class Utils {
 	 * @throws IOException urgh
 	 */
 	public static InputStream userAgentDownload(URL url) throws IOException {
-		URLConnection c = url.openConnection();
-		c.setRequestProperty("User-Agent", "Mozilla/5.0 (aka; mixin download; java downloader)");
-		return c.getInputStream();
+		return open(url, Collections.singletonMap("User-Agent", USER_AGENT));
+	}
+	
+	/**
+	 * Downloads a URL into a file, replacing the file if it exists
+	 * @param url URL to download
+	 * @param out Output file
+	 * @throws IOException Download failed
+	 */
+	public static void download(URL url, File out) throws IOException {
+		download(url, out, null);
+	}
+	
+	/**
+	 * Downloads a URL into a file while hashing the stream, retrying if the request fails or the hash does not match
+	 * @param url URL to download
+	 * @param out Output file
+	 * @param sha1 Expected hash of the file or null if unknown
+	 * @throws IOException Download failed or the hash did not match after all attempts
+	 */
+	public static void download(URL url, File out, String sha1) throws IOException {
+		for (int attempt = 1; ; attempt++) {
+			MessageDigest digest = sha1();
+			try (InputStream in = new DigestInputStream(openOnce(url, Collections.emptyMap()), digest)) {
+				Files.copy(in, out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} catch (IOException e) {
+				out.delete();
+				awaitRetry(url, e, attempt);
+				continue;
+			}
+			if (sha1 == null || sha1.equalsIgnoreCase(toHex(digest.digest()))) return;
+			out.delete();
+			if (attempt >= DOWNLOAD_ATTEMPTS) throw new IOException("Hash mismatch after " + attempt + " attempts: " + url.toString());
+			System.err.println(String.format("[Utils] Hash mismatch, retrying: %s", url.toString()));
+			Progress.Phase phase = Progress.current();
+			if (phase != null) phase.retry();
+		}
+	}
+	
+	/**
+	 * Calculates the SHA-1 hash of a file
+	 * @param file File to hash
+	 * @return Lowercase hex encoded hash
+	 * @throws IOException Unable to read the file
+	 */
+	public static String sha1(File file) throws IOException {
+		MessageDigest digest = sha1();
+		try (InputStream in = Files.newInputStream(file.toPath())) {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+				digest.update(buffer, 0, read);
+		}
+		return toHex(digest.digest());
+	}
+	
+	/**
+	 * Creates a new SHA-1 digest
+	 * @return SHA-1 digest
+	 */
+	public static MessageDigest sha1() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			// every java installation is required to support SHA-1
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Encodes bytes as a lowercase hex string
+	 * @param bytes Bytes to encode
+	 * @return Hex string
+	 */
+	public static String toHex(byte[] bytes) {
+		char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			hex[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+			hex[i * 2 + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+		}
+		return new String(hex);
 	}
 	
 	/**
@@ -68,6 +281,7 @@ public class Utils {
 	 * @param out
 	 */
 	public static void deleteDirectory(File out) {
+		final long start = System.nanoTime();
 		try {
 			// Walk all files and delete them.
 			Files.walkFileTree(out.toPath(), new FileVisitor<Path>() {
@@ -96,31 +310,11 @@ public class Utils {
 		} catch (IOException e) {
 			// catch io exceptions and rethrow them properly
 			throw new FilesystemException("Couldn't delete folder: " + out.getAbsolutePath(), e);
+		} finally {
+			Metrics.time("deleteDirectory", start);
 		}
 	}
 	
-	/**
-	 * Reads a URL Request as String
-	 * @param url URL to read form
-	 * @return URL Response
-	 */
-	public static String readAllBytesAsStringFromURL(URL url) {
-		// Connect closable
-	    try (BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream()))) {
-	    	// Use a buffer to fully read a stream
-	        StringBuffer buffer = new StringBuffer();
-	        int read;
-	        char[] chars = new char[1024];
-	        while ((read = reader.read(chars)) != -1)
-	            buffer.append(chars, 0, read); 
-
-	        return buffer.toString();
-	    } catch (IOException e) {
-	    	// catch io exceptions and rethrow them properly
-			throw new ConnectionException("Failed downloading: " + url.toString(), e);
-		}
-	}
-
 	/**
 	 * Unzips a file without copying META-INF
 	 * @param zipDir Zip Dir
@@ -128,21 +322,23 @@ public class Utils {
 	 * @param job Logging purposes
 	 */
 	public static void unzipFileAndDelete(File zipDir, String zipFile, String job) {
-		ZipFile zip = new ZipFile(new File(zipDir, zipFile));
-		System.out.println(String.format("[GameDownloader] Extracting %s: %s", job, zipFile));
-		try {
-			// Extract File Header Check
-			for (FileHeader fileHeader : zip.getFileHeaders()) {
-				if (fileHeader.getFileName().contains("META-INF")) continue;
-				zip.extractFile(fileHeader, zipDir.getAbsolutePath());
-				System.out.println(String.format("[GameDownloader]     %s", fileHeader.getFileName()));
-			}
-			// Delete the ZIP
-			new File(zipDir, zipFile).delete();
-		} catch (ZipException e) {
-			// rethrow exceptions
-			throw new ExtractionException("Error extracting " + job + ": " + zipFile, e);
-		}
+		final long start = System.nanoTime();
+		new ZipExtractor(zipDir).extract(new File(zipDir, zipFile), job);
+		// Delete the ZIP
+		new File(zipDir, zipFile).delete();
+		Metrics.time("unzip", start);
+	}
+	
+	/**
+	 * Unzips a stream without copying META-INF, without ever writing the archive itself to disk
+	 * @param in Zip Stream, which is closed afterwards
+	 * @param zipDir Output Dir
+	 * @param job Logging purposes
+	 */
+	public static void unzipStream(InputStream in, File zipDir, String job) {
+		final long start = System.nanoTime();
+		new ZipExtractor(zipDir).extract(in, job);
+		Metrics.time("unzip", start);
 	}
 	
 }
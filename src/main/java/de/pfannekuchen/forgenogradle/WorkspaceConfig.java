@@ -0,0 +1,144 @@
+package de.pfannekuchen.forgenogradle;
+
+import java.io.File;
+
+/**
+ * All locations of a single workspace, derived from its project directory
+ * @author agent
+ */
+public class WorkspaceConfig {
+
+	/**
+	 * Version to download
+	 */
+	public static final String VERSION = "1.12.2";
+	
+	/**
+	 * Main Project Folder
+	 */
+	public final File projectDir;
+	
+	/**
+	 * Minecraft Client run directory
+	 */
+	public final File runDir;
+	
+	/**
+	 * Minecrat Server run directory
+	 */
+	public final File runServerDir;
+	
+	/**
+	 * Forge No Gradle build directory
+	 */
+	public final File fngLibDir;
+	
+	/**
+	 * Eclipse temporary class output dir
+	 */
+	public final File binDir;
+	
+	/**
+	 * Eclipse Source Folder
+	 */
+	public final File srcDir;
+	
+	/**
+	 * Eclipse Resource Folder
+	 */
+	public final File rscDir;
+	
+	/**
+	 * User libraries directory
+	 */
+	public final File userLibrariesDir;
+	
+	/**
+	 * Minecraft Forge libraries directory
+	 */
+	public final File librariesDir;
+	
+	/**
+	 * Minecraft Natives directory
+	 */
+	public final File nativesDir;
+	
+	/**
+	 * Minecraft Assets directory
+	 */
+	public final File assetsDir;
+	
+	/**
+	 * MCP mappings directory
+	 */
+	public final File mcpDir;
+	
+	/**
+	 * The Forge Client/Server Jar
+	 */
+	public final File mcforge;
+	
+	/**
+	 * The Forge Client/Server Source Jar
+	 */
+	public final File mcforgeSrc;
+	
+	/**
+	 * The Mixin Jar
+	 */
+	public final File mixin;
+	
+	/**
+	 * The Mixin Source Jar
+	 */
+	public final File mixinSrc;
+	
+	/**
+	 * The Mixin Javadoc Jar
+	 */
+	public final File mixinJd;
+	
+	/**
+	 * The Mixin annotation processor
+	 */
+	public final File mixinP;
+	
+	/**
+	 * Fingerprints of the inputs of all outputs
+	 */
+	public final File fingerprint;
+	
+	/**
+	 * Derives all locations of a workspace
+	 * @param projectDir Main Project Folder
+	 */
+	public WorkspaceConfig(File projectDir) {
+		this.projectDir = projectDir.getAbsoluteFile();
+		this.runDir = new File(this.projectDir, "run");
+		this.runServerDir = new File(this.projectDir, "run-server");
+		this.fngLibDir = new File(this.projectDir, "build");
+		this.binDir = new File(fngLibDir, "bin");
+		this.srcDir = new File(this.projectDir, "src");
+		this.rscDir = new File(this.projectDir, "rsc");
+		this.userLibrariesDir = new File(this.projectDir, "libs");
+		this.librariesDir = new File(fngLibDir, "libraries");
+		this.nativesDir = new File(fngLibDir, "natives");
+		this.assetsDir = new File(fngLibDir, "assets");
+		this.mcpDir = new File(fngLibDir, "mcp");
+		this.mcforge = new File(fngLibDir, "mc-forge-" + VERSION + ".jar");
+		this.mcforgeSrc = new File(fngLibDir, "mc-forge-" + VERSION + "-src.jar");
+		this.mixin = new File(fngLibDir, "mixin-8.2-" + VERSION + ".jar");
+		this.mixinSrc = new File(fngLibDir, "mixin-8.2-" + VERSION + "-src.jar");
+		this.mixinJd = new File(fngLibDir, "mixin-8.2-" + VERSION + "-jd.jar");
+		this.mixinP = new File(fngLibDir, "mixin-8.2-" + VERSION + "-p.jar");
+		this.fingerprint = new File(fngLibDir, "fng-fingerprint.properties");
+	}
+	
+	/**
+	 * @return Name of the project
+	 */
+	public String getName() {
+		return projectDir.getName();
+	}
+	
+}
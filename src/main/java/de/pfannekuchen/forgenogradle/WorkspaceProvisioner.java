@@ -0,0 +1,417 @@
+package de.pfannekuchen.forgenogradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import de.pfannekuchen.forgenogradle.download.ArtifactStore;
+import de.pfannekuchen.forgenogradle.download.SegmentedDownload;
+import de.pfannekuchen.forgenogradle.exceptions.ConnectionException;
+import de.pfannekuchen.forgenogradle.exceptions.FilesystemException;
+import de.pfannekuchen.forgenogradle.gson.json.VersionJson;
+
+/**
+ * Prepares a single ForgeNoGradle workspace, sharing metadata and downloads with all other workspaces of the same context
+ * @author agent
+ */
+public class WorkspaceProvisioner {
+
+	/**
+	 * Base URL for all Mixin downloads
+	 */
+	private static final String MIXIN_BASE_URL = "https://repo.spongepowered.org/repository/maven-public/org/spongepowered/mixin/0.8.2/mixin-0.8.2";
+	
+	/**
+	 * Locations of the workspace
+	 */
+	private final WorkspaceConfig config;
+	
+	/**
+	 * State shared with all other workspaces
+	 */
+	private final ProvisioningContext context;
+	
+	/**
+	 * Fingerprints of the inputs of all outputs
+	 */
+	private final Fingerprint fingerprint;
+	
+	/**
+	 * Whether dependencies should be skipped
+	 */
+	private boolean skipLibs;
+	
+	/**
+	 * Creates a provisioner for a workspace
+	 * @param config Locations of the workspace
+	 * @param context State shared with all other workspaces
+	 */
+	public WorkspaceProvisioner(WorkspaceConfig config, ProvisioningContext context) {
+		this.config = config;
+		this.context = context;
+		this.fingerprint = new Fingerprint(config.fingerprint);
+	}
+	
+	/**
+	 * @return Whether unchanged dependencies were skipped by the last run
+	 */
+	public boolean isSkipLibs() {
+		return skipLibs;
+	}
+	
+	/**
+	 * Provisions many workspaces concurrently, sharing metadata and downloads between them
+	 * @param configs Workspaces to provision
+	 * @param context State shared by all workspaces
+	 * @param threads Maximum amount of workspaces provisioned at the same time
+	 * @param verify Whether to only verify and repair the workspaces
+	 */
+	public static void provisionAll(List<WorkspaceConfig> configs, ProvisioningContext context, int threads, boolean verify) {
+		final ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, configs.size())));
+		final List<Future<?>> tasks = new ArrayList<>();
+		for (WorkspaceConfig config : configs) {
+			tasks.add(pool.submit(() -> {
+				Progress.scope(configs.size() > 1 ? config.getName() : null);
+				try {
+					WorkspaceProvisioner provisioner = new WorkspaceProvisioner(config, context);
+					if (verify) provisioner.verify();
+					else provisioner.provision();
+				} finally {
+					Progress.scope(null);
+				}
+			}));
+		}
+		pool.shutdown();
+		// Wait for all workspaces and rethrow the first failure
+		RuntimeException failure = null;
+		for (int i = 0; i < tasks.size(); i++) {
+			try {
+				tasks.get(i).get();
+			} catch (InterruptedException | ExecutionException e) {
+				final Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+				System.err.println(String.format("[WorkspaceProvisioner] Failed provisioning %s: %s", configs.get(i).projectDir, cause));
+				if (failure == null) failure = cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+				else failure.addSuppressed(cause);
+			}
+		}
+		if (failure != null) throw failure;
+	}
+	
+	/**
+	 * Prepares the workspace
+	 */
+	public void provision() {
+		System.out.println("========== Starting to prepare ForgeNoGradle workspace " + config.getName());
+		final Metrics metrics = Metrics.begin(config.getName(), "provision");
+		boolean success = false;
+		try {
+			// Delete Folder Structore
+			deleteFolderStructure();
+			
+			// Create Folder Structure
+			createFolderStructure();
+			
+			System.out.println("=========== 1/3 finished. Took " + String.format("%.2f", metrics.getElapsed() / 1.0E9) + " seconds...");
+			
+			// Download the game assets
+			downloadGameAssets();
+			
+			System.out.println("=========== 2/3 finished. Took " + String.format("%.2f", metrics.getElapsed() / 1.0E9) + " seconds...");
+			
+			// Create Eclipse Files
+			createEclipseFiles();
+			
+			System.out.println("=========== 3/3 finished. Took " + String.format("%.2f", metrics.getElapsed() / 1.0E9) + " seconds...");
+			success = true;
+		} finally {
+			metrics.end(new File(config.fngLibDir, "fng-report.json"), success);
+		}
+	}
+	
+	/**
+	 * Deletes the outputs that are always regenerated
+	 */
+	private void deleteFolderStructure() {
+		System.out.println("[WorkspaceProvisioner] Deleting Project File Structure...");
+		
+		// Delete folders and files that require an update
+		if (config.binDir.exists()) Utils.deleteDirectory(config.binDir);
+		
+		System.out.println("[WorkspaceProvisioner] Finished deleting file structure");
+	}
+	
+	/**
+	 * Deletes files and folders of an output that is about to be regenerated
+	 * @param delete Files and folders to delete
+	 */
+	private void deleteOutput(File... delete) {
+		for (File f : delete) {
+			if (!f.exists()) continue;
+			if (f.isDirectory()) Utils.deleteDirectory(f);
+			else f.delete();
+		}
+	}
+	
+	/**
+	 * Creates the folder structure
+	 */
+	private void createFolderStructure() {
+		System.out.println("[WorkspaceProvisioner] Create Project Folder Structure...");
+		
+		// Create all required folders
+		config.runDir.mkdir();
+		config.runServerDir.mkdir();
+		if (!config.fngLibDir.exists()) config.fngLibDir.mkdir();
+		if (!config.nativesDir.exists()) config.nativesDir.mkdir();
+		if (!config.assetsDir.exists()) config.assetsDir.mkdir();
+		if (!config.srcDir.exists()) config.srcDir.mkdir();
+		if (!config.rscDir.exists()) config.rscDir.mkdir();
+		config.binDir.mkdir();
+		
+		System.out.println("[WorkspaceProvisioner] Finished creating folder structure");
+	}
+	
+	/**
+	 * Downloads the game assets
+	 */
+	private void downloadGameAssets() {
+		System.out.println("[WorkspaceProvisioner] Downloading Game Assets and Libraries");
+		
+		// Parse the 3 JSONs containing all dependencies and assets once for all workspaces
+		final GameMetadata metadata = context.getMetadata();
+		final VersionJson versions = metadata.versions;
+		final ArtifactStore store = context.getStore();
+		try {
+			// Download using these JSON files
+			skipLibs = !fingerprint.isStale("libraries", metadata.fingerprint + "\n" + Utils.getOs(), config.librariesDir, config.nativesDir);
+			if (!skipLibs) {
+				GameDownloader.downloadDeps(versions, metadata.forgeversions, config.nativesDir, config.librariesDir, store, context.getHosts());
+				fingerprint.update("libraries");
+			} else System.out.println("[WorkspaceProvisioner] Skipped downloading unchanged Libraries");
+			GameDownloader.downloadAssets(versions, metadata.assets, metadata.assetIndex, config.assetsDir, store, context.getHosts());
+			Files.copy(WorkspaceProvisioner.class.getResourceAsStream("/forgeapi.lib"), new File(config.librariesDir, "forgeapi.jar").toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+	    	// catch exceptions and rethrow them properly
+			throw new ConnectionException("Unable to download files", e);
+		}
+		
+		if (fingerprint.isStale("forge", metadata.fingerprint, config.mcforge, config.mcforgeSrc)) {
+			System.out.println("[WorkspaceProvisioner] Downloading the Forge Client+Server Jar");
+			final Progress.Phase phase = Progress.begin("Forge");
+			try {
+				final URL jar = new URL("https://data.mgnet.work/forge/mc-forge-" + versions.id + ".jar");
+				final URL src = new URL("https://data.mgnet.work/forge/mc-forge-" + versions.id + "-src.jar");
+				context.produce(jar.toString(), config.mcforge, () -> SegmentedDownload.download(jar, config.mcforge, Collections.emptyMap()));
+				phase.file();
+				context.produce(src.toString(), config.mcforgeSrc, () -> SegmentedDownload.download(src, config.mcforgeSrc, Collections.emptyMap()));
+				phase.file();
+				fingerprint.update("forge");
+			} catch (IOException e) {
+		    	// catch io exceptions and rethrow them properly
+				throw new ConnectionException("Failed downloading: https://data.mgnet.work/forge/mc-forge-" + versions.id + ".jar", e);
+			} finally {
+				phase.end();
+			}
+		}
+		
+		if (fingerprint.isStale("mcp", metadata.fingerprint, new File(config.mcpDir, "mcp-srg.srg"))) {
+			System.out.println("[WorkspaceProvisioner] Downloading the Forge MCP Version");
+			final Progress.Phase phase = Progress.begin("MCP");
+			try {
+				deleteOutput(config.mcpDir);
+				config.mcpDir.mkdir();
+				// extract straight from the network
+				final URL zip = new URL("https://data.mgnet.work/forge/" + versions.id + "-mcp.zip");
+				context.produce(zip.toString(), config.mcpDir, () -> Utils.unzipStream(Utils.open(zip, Collections.emptyMap()), config.mcpDir, "MCP"));
+				phase.file();
+				fingerprint.update("mcp");
+			} catch (IOException e) {
+		    	// catch io exceptions and rethrow them properly
+				throw new ConnectionException("Failed downloading: https://data.mgnet.work/forge/" + versions.id + "-mcp.zip", e);
+			} finally {
+				phase.end();
+			}
+		}
+		
+		if (fingerprint.isStale("mixin", GameMetadata.TOOL_VERSION + "\n" + MIXIN_BASE_URL, config.mixin, config.mixinSrc, config.mixinJd, config.mixinP)) {
+			System.out.println("[WorkspaceProvisioner] Downloading Mixin");
+			final Progress.Phase phase = Progress.begin("Mixin");
+			try {
+				final Map<String, String> headers = Collections.singletonMap("User-Agent", Utils.USER_AGENT);
+				final String[] suffixes = new String[] { ".jar", "-sources.jar", "-javadoc.jar", "-processor.jar" };
+				final File[] files = new File[] { config.mixin, config.mixinSrc, config.mixinJd, config.mixinP };
+				for (int i = 0; i < files.length; i++) {
+					final URL url = new URL(MIXIN_BASE_URL + suffixes[i]);
+					final File file = files[i];
+					context.produce(url.toString(), file, () -> SegmentedDownload.download(url, file, headers));
+					phase.file();
+				}
+				fingerprint.update("mixin");
+			} catch (IOException e) {
+		    	// catch io exceptions and rethrow them properly
+				throw new ConnectionException("Failed downloading mixin", e);
+			} finally {
+				phase.end();
+			}
+		}
+		
+		System.out.println("[WorkspaceProvisioner] Finished downloading the Game Assets");
+	}
+	
+	/**
+	 * Verifies all downloaded libraries and assets and repairs the ones that are missing or corrupt.
+	 * Natives, Forge, MCP and Mixin are not covered, their files have no known hash
+	 */
+	public void verify() {
+		System.out.println("[WorkspaceProvisioner] Verifying Game Assets and Libraries of " + config.getName());
+		
+		// Verify using the shared JSON files
+		final Metrics metrics = Metrics.begin(config.getName(), "verify");
+		boolean success = false;
+		try {
+			final GameMetadata metadata = context.getMetadata();
+			GameDownloader.verifyDeps(metadata.versions, metadata.forgeversions, metadata.assets, config.librariesDir, config.assetsDir, context.getStore(), context.getHosts());
+			success = true;
+		} finally {
+			metrics.end(new File(config.fngLibDir, "fng-report.json"), success);
+		}
+		
+		System.out.println("[WorkspaceProvisioner] Finished verifying the Game Assets and Libraries");
+	}
+	
+	/**
+	 * Creates all eclipse project files
+	 */
+	private void createEclipseFiles() {
+		final File[] files = new File[] {
+			new File(config.projectDir, ".project"),
+			new File(config.projectDir, ".classpath"),
+			new File(config.projectDir, ".factorypath"),
+			new File(config.projectDir, config.projectDir.getName() + "-" + WorkspaceConfig.VERSION + ".launch"),
+			new File(config.projectDir, config.projectDir.getName() + "-" + WorkspaceConfig.VERSION + "-export.launch"),
+			new File(config.projectDir, config.projectDir.getName() + "-" + WorkspaceConfig.VERSION + "-server.launch"),
+			new File(config.projectDir, ".gitignore"),
+			new File(config.projectDir, ".settings")
+		};
+		if (!fingerprint.isStale("eclipse", context.getMetadata().fingerprint + "\n" + config.projectDir.getAbsolutePath() + "\n" + Fingerprint.listing(config.librariesDir) + "\n" + Fingerprint.listing(config.userLibrariesDir), files)) {
+			System.out.println("[WorkspaceProvisioner] Skipped creating unchanged Eclipse Files");
+			return;
+		}
+		
+		final long start = System.nanoTime();
+		
+		// Delete the generated sources and run directories, the eclipse files themselves are only replaced if they have changed
+		deleteOutput(new File(config.projectDir, ".apt_generated"), new File(config.projectDir, ".apt_generated_tests"), config.runDir, config.runServerDir);
+		config.runDir.mkdir();
+		config.runServerDir.mkdir();
+		
+		try {
+			final String name = config.projectDir.getName();
+			int written = 0;
+
+			System.out.println("[WorkspaceProvisioner] Preparing .project...");
+			
+			// Prepare Project File
+			if (Eclipse.PROJECT_TEMPLATE.write(files[0], Template.values("NAME", name))) written++;
+
+			System.out.println("[WorkspaceProvisioner] Preparing .settings/...");
+			
+			// Prepare settings file
+			files[7].mkdir();
+			if (Eclipse.CORE_PREFS_TEMPLATE.write(new File(files[7], "org.eclipse.jdt.core.prefs"), Template.values())) written++;
+			if (Eclipse.APT_CORE_PREFS_TEMPLATE.write(new File(files[7], "org.eclipse.jdt.apt.core.prefs"), Template.values("SRG", new File(config.fngLibDir, "mcp/mcp-srg.srg").getAbsolutePath().replace('\\', '/').replace(":", "\\:")))) written++;
+			
+			System.out.println("[WorkspaceProvisioner] Preparing .gitignore...");
+			
+			// Prepare .gitignore
+			if (Eclipse.GITIGNORE_TEMPLATE.write(files[6], Template.values())) written++;
+			
+			System.out.println("[WorkspaceProvisioner] Preparing .factorypath...");
+			
+			// Prepare .factorypath
+			if (Eclipse.FACTORY_PATH_TEMPLATE.write(files[2], Template.values("PROCESSOR", config.mixinP.getAbsolutePath().replace('\\', '/')))) written++;
+			
+			System.out.println("[WorkspaceProvisioner] Preparing *.launch...");
+			
+			// Prepare launch files, the server only runs in a different directory
+			if (Eclipse.RUN_TEMPLATE.write(files[3], Template.values("PROJECT", name, "MIXIN", config.mixin.getName(), "RUN", "run"))) written++;
+			if (Eclipse.RUN_TEMPLATE.write(files[5], Template.values("PROJECT", name, "MIXIN", config.mixin.getName(), "RUN", "run-server"))) written++;
+			if (Eclipse.EXPORT_TEMPLATE.write(files[4], Template.values("PROJECT", name))) written++;
+			
+			System.out.println("[WorkspaceProvisioner] Preparing .classpath...");
+			
+			// Prepare Classpath File
+			if (Eclipse.CLASSPATH_TEMPLATE.write(files[1], Template.values("INSERT", renderClasspathEntries()))) written++;
+
+			fingerprint.update("eclipse");
+			System.out.println(String.format("[WorkspaceProvisioner] Finished creating Eclipse Files, %d of 9 changed", written));
+		} catch (IOException e) {
+			throw new FilesystemException("Unable to create eclipse projec files", e);
+		} finally {
+			Metrics.time("eclipse", start);
+		}
+	}
+	
+	/**
+	 * Renders the .classpath file from the libraries of the workspace
+	 * @return Content of the .classpath file
+	 */
+	String renderClasspath() {
+		return Eclipse.CLASSPATH_TEMPLATE.render(Template.values("INSERT", renderClasspathEntries()));
+	}
+	
+	/**
+	 * Renders the library entries of the .classpath file
+	 * @return Library entries
+	 */
+	private StringBuilder renderClasspathEntries() {
+		final StringBuilder entries = new StringBuilder();
+		final String natives = relativize(config.nativesDir);
+		try {
+			for (File lib : config.librariesDir.listFiles()) {
+				final String name = lib.getName().toLowerCase();
+				// Add natives for lwjgl, jinput and text2speech
+				if (name.contains("lwjgl-") || name.contains("jinput") || name.contains("text2speech")) {
+					entries.append('\t');
+					Eclipse.LIBRARY_NATIVE_TEMPLATE.render(Template.values("PATH", relativize(lib), "NATIVES", natives), entries);
+				} else {
+					Eclipse.LIBRARY_TEMPLATE.render(Template.values("PATH", relativize(lib)), entries);
+					entries.append('\n');
+				}
+			}
+			if (config.userLibrariesDir.exists()) {
+				for (File lib : config.userLibrariesDir.listFiles()) {
+					Eclipse.LIBRARY_TEMPLATE.render(Template.values("PATH", relativize(lib)), entries);
+					entries.append('\n');
+				}
+			}
+			Eclipse.LIBRARY_SOURCE_TEMPLATE.render(Template.values("PATH", relativize(config.mcforge), "SOURCE", relativize(config.mcforgeSrc)), entries);
+			entries.append('\n');
+			Eclipse.LIBRARY_FULL_TEMPLATE.render(Template.values("PATH", relativize(config.mixin), "SOURCE", relativize(config.mixinSrc), "JAVADOC", relativize(config.mixinJd)), entries);
+		} catch (IOException e) {
+			// never thrown by a string builder
+			throw new IllegalStateException(e);
+		}
+		return entries;
+	}
+	
+	/**
+	 * Makes a file relative to the project
+	 * @param file File inside the project
+	 * @return Path relative to the project
+	 */
+	private String relativize(File file) {
+		return config.projectDir.toURI().relativize(file.toURI()).getPath();
+	}
+	
+}
@@ -0,0 +1,281 @@
+package de.pfannekuchen.forgenogradle;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import de.pfannekuchen.forgenogradle.exceptions.ExtractionException;
+
+/**
+ * Extracts zip archives without META-INF by fanning the entries out across a shared worker pool
+ * @author agent
+ */
+public class ZipExtractor {
+
+	/**
+	 * Amount of workers writing entries
+	 */
+	private static final int WORKERS = Runtime.getRuntime().availableProcessors();
+	
+	/**
+	 * Maximum amount of decoded bytes waiting to be written while extracting a stream
+	 */
+	private static final int MAX_PENDING_BYTES = 32 * 1024 * 1024;
+	
+	/**
+	 * Size of the buffer every worker writes through
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * Shared worker pool, daemon threads so an idle pool never keeps the program alive
+	 */
+	private static final ExecutorService POOL = Executors.newFixedThreadPool(WORKERS, r -> {
+		Thread thread = new Thread(r, "ZipExtractor");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	/**
+	 * Buffer of every worker
+	 */
+	private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+	
+	/**
+	 * Output directory
+	 */
+	private final Path root;
+	
+	/**
+	 * Directories that have already been created
+	 */
+	private final Set<Path> directories = ConcurrentHashMap.newKeySet();
+	
+	/**
+	 * Amount of extracted files
+	 */
+	private final AtomicInteger files = new AtomicInteger();
+	
+	/**
+	 * Amount of extracted bytes
+	 */
+	private final AtomicLong bytes = new AtomicLong();
+	
+	/**
+	 * Prepares an extraction into a directory
+	 * @param dir Output directory
+	 */
+	public ZipExtractor(File dir) {
+		this.root = dir.toPath().toAbsolutePath().normalize();
+	}
+	
+	/**
+	 * Extracts a zip file, reading the entries in parallel
+	 * @param zipFile Zip file
+	 * @param job Logging purposes
+	 */
+	public void extract(File zipFile, String job) {
+		final long time = System.currentTimeMillis();
+		try (ZipFile zip = new ZipFile(zipFile)) {
+			// collect entries and create all directories at once
+			final List<ZipEntry> entries = new ArrayList<>();
+			final Set<Path> required = new TreeSet<>();
+			for (ZipEntry entry : Collections.list(zip.entries())) {
+				if (entry.getName().contains("META-INF")) continue;
+				final Path out = resolve(entry);
+				if (entry.isDirectory()) required.add(out);
+				else {
+					required.add(out.getParent());
+					entries.add(entry);
+				}
+			}
+			for (Path directory : required) createDirectory(directory);
+			// let every worker pull entries until none are left
+			final AtomicInteger next = new AtomicInteger();
+			final List<Future<?>> workers = new ArrayList<>();
+			for (int i = 0; i < Math.min(WORKERS, entries.size()); i++) {
+				workers.add(POOL.submit(() -> {
+					int index;
+					while ((index = next.getAndIncrement()) < entries.size()) {
+						final ZipEntry entry = entries.get(index);
+						try (InputStream in = zip.getInputStream(entry)) {
+							write(in, resolve(entry));
+						}
+					}
+					return null;
+				}));
+			}
+			await(workers);
+		} catch (IOException e) {
+			// rethrow exceptions
+			throw new ExtractionException("Error extracting " + job + ": " + zipFile.getName(), e);
+		}
+		System.out.println(String.format("[ZipExtractor] Extracted %s: %d files, %d bytes in %d ms", job, files.get(), bytes.get(), System.currentTimeMillis() - time));
+	}
+	
+	/**
+	 * Extracts a zip stream, decoding it on the calling thread while the entries are written in parallel
+	 * @param in Zip stream, which is closed afterwards
+	 * @param job Logging purposes
+	 */
+	public void extract(InputStream in, String job) {
+		final long time = System.currentTimeMillis();
+		final Semaphore pending = new Semaphore(MAX_PENDING_BYTES);
+		final List<Future<?>> writes = new ArrayList<>();
+		try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(in))) {
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				if (entry.getName().contains("META-INF")) continue;
+				final Path out = resolve(entry);
+				if (entry.isDirectory()) {
+					createDirectory(out);
+					continue;
+				}
+				// decode the entry and hand it to a worker
+				final byte[] data = readFully(zip, entry.getSize());
+				final int permits = Math.min(data.length, MAX_PENDING_BYTES);
+				pending.acquire(permits);
+				writes.add(POOL.submit(() -> {
+					try {
+						createDirectory(out.getParent());
+						write(data, out);
+					} finally {
+						pending.release(permits);
+					}
+					return null;
+				}));
+			}
+			await(writes);
+		} catch (IOException e) {
+			// rethrow exceptions
+			throw new ExtractionException("Error extracting " + job, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ExtractionException("Interrupted while extracting " + job, e);
+		}
+		System.out.println(String.format("[ZipExtractor] Extracted %s: %d files, %d bytes in %d ms", job, files.get(), bytes.get(), System.currentTimeMillis() - time));
+	}
+	
+	/**
+	 * Resolves the output path of an entry
+	 * @param entry Zip entry
+	 * @return Output path inside of the output directory
+	 * @throws IOException The entry would be written outside of the output directory
+	 */
+	private Path resolve(ZipEntry entry) throws IOException {
+		final Path out = root.resolve(entry.getName()).normalize();
+		if (!out.startsWith(root)) throw new IOException("Entry outside of the output directory: " + entry.getName());
+		return out;
+	}
+	
+	/**
+	 * Creates a directory unless it has been created before
+	 * @param directory Directory to create
+	 * @throws IOException Unable to create the directory
+	 */
+	private void createDirectory(Path directory) throws IOException {
+		if (directories.add(directory)) Files.createDirectories(directory);
+	}
+	
+	/**
+	 * Writes a stream into a file through the buffer of the current worker
+	 * @param in Stream to write
+	 * @param out Output file
+	 * @throws IOException Unable to write the file
+	 */
+	private void write(InputStream in, Path out) throws IOException {
+		final byte[] buffer = BUFFER.get();
+		try (FileChannel channel = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+				while (data.hasRemaining()) channel.write(data);
+				bytes.addAndGet(read);
+			}
+		}
+		files.incrementAndGet();
+	}
+	
+	/**
+	 * Writes bytes into a file
+	 * @param data Bytes to write
+	 * @param out Output file
+	 * @throws IOException Unable to write the file
+	 */
+	private void write(byte[] data, Path out) throws IOException {
+		try (FileChannel channel = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.wrap(data);
+			while (buffer.hasRemaining()) channel.write(buffer);
+		}
+		bytes.addAndGet(data.length);
+		files.incrementAndGet();
+	}
+	
+	/**
+	 * Reads the current entry of a zip stream
+	 * @param zip Zip stream
+	 * @param size Size of the entry or -1 if unknown
+	 * @return Content of the entry
+	 * @throws IOException Unable to read the entry
+	 */
+	private static byte[] readFully(ZipInputStream zip, long size) throws IOException {
+		byte[] data = new byte[size >= 0 && size < Integer.MAX_VALUE ? (int) size : BUFFER_SIZE];
+		int length = 0;
+		int read;
+		while ((read = zip.read(data, length, data.length - length)) != -1) {
+			length += read;
+			if (length == data.length) {
+				// grow unless the end of the entry has been reached
+				int next = zip.read();
+				if (next == -1) break;
+				data = Arrays.copyOf(data, data.length * 2);
+				data[length++] = (byte) next;
+			}
+		}
+		return length == data.length ? data : Arrays.copyOf(data, length);
+	}
+	
+	/**
+	 * Waits for all tasks and rethrows the first failure
+	 * @param tasks Tasks to wait for
+	 * @throws IOException First failure of the tasks
+	 */
+	private static void await(List<Future<?>> tasks) throws IOException {
+		IOException failure = null;
+		for (Future<?> task : tasks) {
+			try {
+				task.get();
+			} catch (ExecutionException e) {
+				if (failure == null) failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while extracting", e);
+			}
+		}
+		if (failure != null) throw failure;
+	}
+	
+}
@@ -0,0 +1,173 @@
+package de.pfannekuchen.forgenogradle.download;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.pfannekuchen.forgenogradle.Utils;
+import de.pfannekuchen.forgenogradle.exceptions.FilesystemException;
+
+/**
+ * Machine-wide content-addressed store for downloaded files, shared by all workspaces and processes
+ * @author agent
+ */
+public class ArtifactStore {
+
+	/**
+	 * Root directory of the store
+	 */
+	private final File root;
+	
+	/**
+	 * Lock file guarding the store against concurrent processes, one byte region per object directory
+	 */
+	private final FileChannel lockChannel;
+	
+	/**
+	 * Guards against concurrent threads of this process, as file locks are held per process
+	 */
+	private final Object[] guards = new Object[256];
+	
+	/**
+	 * Object currently downloaded by a thread of this process for every hash, so every object is only downloaded once at a time
+	 */
+	private final Map<String, Object> downloads = new ConcurrentHashMap<>();
+	
+	/**
+	 * Opens or creates a store
+	 * @param root Root directory of the store
+	 */
+	public ArtifactStore(File root) {
+		this.root = root;
+		for (int i = 0; i < guards.length; i++) guards[i] = new Object();
+		try {
+			root.mkdirs();
+			this.lockChannel = FileChannel.open(new File(root, ".lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		} catch (IOException e) {
+			// catch io exceptions and rethrow them properly
+			throw new FilesystemException("Unable to open artifact store: " + root.getAbsolutePath(), e);
+		}
+	}
+	
+	/**
+	 * Finds the location of an object inside of the store
+	 * @param sha1 Hash of the object
+	 * @return Location of the object, which may not exist
+	 */
+	public File locate(String sha1) {
+		sha1 = sha1.toLowerCase(Locale.ENGLISH);
+		return new File(new File(root, sha1.substring(0, 2)), sha1);
+	}
+	
+	/**
+	 * Downloads an object into the store, unless it is already present
+	 * @param url URL of the object
+	 * @param sha1 Hash of the object
+	 * @return Location of the object
+	 * @throws IOException Download failed
+	 */
+	public File obtain(URL url, String sha1) throws IOException {
+		final File object = locate(sha1);
+		if (object.exists()) return object;
+		final Object download = downloads.computeIfAbsent(object.getName(), name -> new Object());
+		try {
+			synchronized (download) {
+				// another thread might have finished the object while waiting
+				if (object.exists()) return object;
+				object.getParentFile().mkdirs();
+				// download without holding the lock, so other processes can download their objects meanwhile
+				File temp = File.createTempFile(object.getName(), ".part", object.getParentFile());
+				try {
+					Utils.download(url, temp, sha1);
+					final int region = Integer.parseInt(object.getName().substring(0, 2), 16);
+					synchronized (guards[region]) {
+						final FileLock lock = lockChannel.lock(region, 1, false);
+						try {
+							// another process might have finished the object in the meantime
+							if (!object.exists()) Files.move(temp.toPath(), object.toPath(), StandardCopyOption.ATOMIC_MOVE);
+						} finally {
+							lock.release();
+						}
+					}
+				} finally {
+					temp.delete();
+				}
+			}
+		} finally {
+			downloads.remove(object.getName(), download);
+		}
+		return object;
+	}
+	
+	/**
+	 * Downloads an object into the store if necessary and places it into the workspace
+	 * @param url URL of the object
+	 * @param sha1 Hash of the object or null if unknown, in which case the store is bypassed
+	 * @param out Output file in the workspace
+	 * @throws IOException Download failed
+	 */
+	public void fetch(URL url, String sha1, File out) throws IOException {
+		if (sha1 == null || sha1.isEmpty()) Utils.download(url, out);
+		else link(obtain(url, sha1), out);
+	}
+	
+	/**
+	 * Opens an object, reading it from the store if the hash is known and from the network otherwise
+	 * @param url URL of the object
+	 * @param sha1 Hash of the object or null if unknown, in which case the store is bypassed
+	 * @return Stream of the object
+	 * @throws IOException Download failed
+	 */
+	public InputStream open(URL url, String sha1) throws IOException {
+		if (sha1 == null || sha1.isEmpty()) return Utils.open(url, Collections.emptyMap());
+		return Files.newInputStream(obtain(url, sha1).toPath());
+	}
+	
+	/**
+	 * Replaces a corrupt file in the workspace, evicting the object from the store if it is corrupt as well
+	 * @param url URL of the object
+	 * @param sha1 Hash of the object
+	 * @param out Output file in the workspace
+	 * @throws IOException Download failed
+	 */
+	public void repair(URL url, String sha1, File out) throws IOException {
+		final File object = locate(sha1);
+		final int region = Integer.parseInt(object.getName().substring(0, 2), 16);
+		synchronized (guards[region]) {
+			final FileLock lock = lockChannel.lock(region, 1, false);
+			try {
+				if (object.exists() && !sha1.equalsIgnoreCase(Utils.sha1(object))) Files.delete(object.toPath());
+			} finally {
+				lock.release();
+			}
+		}
+		fetch(url, sha1, out);
+	}
+	
+	/**
+	 * Places an object into the workspace by hardlinking it, falling back to a copy
+	 * @param object Object inside the store
+	 * @param out Output file in the workspace
+	 * @throws IOException Copying failed
+	 */
+	private static void link(File object, File out) throws IOException {
+		Files.deleteIfExists(out.toPath());
+		try {
+			Files.createLink(out.toPath(), object.toPath());
+		} catch (IOException | UnsupportedOperationException e) {
+			// different file system or no hardlink support
+			Files.copy(object.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+}
@@ -0,0 +1,241 @@
+package de.pfannekuchen.forgenogradle.download;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.pfannekuchen.forgenogradle.Utils;
+import de.pfannekuchen.forgenogradle.exceptions.ConnectionException;
+import de.pfannekuchen.forgenogradle.exceptions.FilesystemException;
+import de.pfannekuchen.forgenogradle.gson.jsonassets.AssetsJson;
+
+/**
+ * Synchronizes the asset objects directory with an asset index, only fetching missing or corrupt objects
+ * @author agent
+ */
+public class AssetSync {
+
+	/**
+	 * Base URL for all asset objects
+	 */
+	public static final String RESOURCES_URL = "https://resources.download.minecraft.net/";
+	
+	/**
+	 * Name of the manifest storing size and modification time of all verified objects
+	 */
+	private static final String MANIFEST = ".fng-manifest";
+	
+	/**
+	 * Size and modification time of a file
+	 */
+	private static final class Stat {
+		
+		final long size;
+		final long modified;
+		
+		Stat(long size, long modified) {
+			this.size = size;
+			this.modified = modified;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Stat && ((Stat) obj).size == size && ((Stat) obj).modified == modified;
+		}
+		
+		@Override
+		public int hashCode() {
+			return Long.hashCode(size) * 31 + Long.hashCode(modified);
+		}
+		
+	}
+	
+	/**
+	 * Asset objects directory
+	 */
+	private final File objects;
+	
+	/**
+	 * Store to fetch missing objects from
+	 */
+	private final ArtifactStore store;
+	
+	/**
+	 * Prepares a sync of an assets directory
+	 * @param assetsdir Assets directory containing the objects directory
+	 * @param store Store to fetch missing objects from
+	 */
+	public AssetSync(File assetsdir, ArtifactStore store) {
+		this.objects = new File(assetsdir, "objects");
+		this.store = store;
+	}
+	
+	/**
+	 * Fetches all missing or corrupt objects and deletes objects that are no longer referenced
+	 * @param assets Asset index
+	 * @param scheduler Scheduler to run hashing and downloading on
+	 */
+	public void sync(AssetsJson assets, DownloadScheduler scheduler) {
+		objects.mkdirs();
+		final Map<String, Stat> previous = readManifest();
+		final Map<String, Stat> verified = new ConcurrentHashMap<>();
+		final AtomicInteger fetched = new AtomicInteger();
+		int unchanged = 0;
+		
+		// Deduplicate the objects by hash, many names share the same object
+		final Map<String, Long> unique = new HashMap<>();
+		long duplicateBytes = 0;
+		for (int i = 0; i < assets.size(); i++) {
+			if (unique.putIfAbsent(assets.getHash(i), assets.getSize(i)) != null) duplicateBytes += assets.getSize(i);
+		}
+		System.out.println(String.format("[AssetSync] Deduplicated %d objects into %d, saving %.2f MB", assets.size(), unique.size(), duplicateBytes / 1048576.0));
+		
+		// Largest objects first, so they don't end up as the tail of the run
+		final List<Map.Entry<String, Long>> plan = new ArrayList<>(unique.entrySet());
+		plan.sort(Map.Entry.comparingByValue(Comparator.reverseOrder()));
+		try {
+			for (Map.Entry<String, Long> asset : plan) {
+				final String hash = asset.getKey();
+				final long size = asset.getValue();
+				final File file = locate(hash);
+				final Stat stat = stat(file);
+				// skip objects that have been verified with the same size and modification time before
+				if (stat != null && stat.size == size && stat.equals(previous.get(hash))) {
+					verified.put(hash, stat);
+					unchanged++;
+					continue;
+				}
+				final URL url = new URL(RESOURCES_URL + hash.substring(0, 2) + "/" + hash);
+				scheduler.submit(url, () -> {
+					// hash objects of the correct size before downloading them again
+					if (stat != null && stat.size == size && hash.equalsIgnoreCase(Utils.sha1(file))) {
+						verified.put(hash, stat);
+						return;
+					}
+					file.getParentFile().mkdirs();
+					if (stat == null) {
+						store.fetch(url, hash, file);
+					} else {
+						// the object is hardlinked to the store, so the stored copy is most likely corrupt as well
+						store.repair(url, hash, file);
+						if (!hash.equalsIgnoreCase(Utils.sha1(file))) throw new IOException("Object is still corrupt after repairing it: " + file.getAbsolutePath());
+					}
+					verified.put(hash, stat(file));
+					fetched.incrementAndGet();
+				});
+			}
+		} catch (IOException e) {
+			// rethrow exceptions
+			throw new ConnectionException("Error downloading assets", e);
+		} finally {
+			// persist everything that has been verified, even if some downloads failed
+			try {
+				scheduler.await();
+			} finally {
+				writeManifest(verified);
+			}
+		}
+		int removed = collectGarbage(unique.keySet());
+		System.out.println(String.format("[AssetSync] Assets synchronized: %d unchanged, %d verified, %d downloaded, %d removed", unchanged, verified.size() - unchanged - fetched.get(), fetched.get(), removed));
+	}
+	
+	/**
+	 * Deletes all objects that are not referenced by the asset index
+	 * @param referenced Hashes of all referenced objects
+	 * @return Amount of deleted objects
+	 */
+	private int collectGarbage(Set<String> referenced) {
+		int removed = 0;
+		File[] directories = objects.listFiles(File::isDirectory);
+		if (directories == null) return 0;
+		for (File directory : directories) {
+			for (File object : directory.listFiles()) {
+				if (referenced.contains(object.getName())) continue;
+				if (object.delete()) removed++;
+			}
+			directory.delete(); // only succeeds if the directory is empty
+		}
+		return removed;
+	}
+	
+	/**
+	 * Finds the location of an object inside of the objects directory
+	 * @param hash Hash of the object
+	 * @return Location of the object
+	 */
+	private File locate(String hash) {
+		return new File(new File(objects, hash.substring(0, 2)), hash);
+	}
+	
+	/**
+	 * Reads size and modification time of a file with a single call
+	 * @param file File to read
+	 * @return Stat of the file or null if it does not exist
+	 * @throws IOException Unable to read the attributes
+	 */
+	private static Stat stat(File file) throws IOException {
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			return new Stat(attributes.size(), attributes.lastModifiedTime().toMillis());
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Reads the manifest of the last sync
+	 * @return Stat of every object verified during the last sync
+	 */
+	private Map<String, Stat> readManifest() {
+		final Map<String, Stat> manifest = new HashMap<>();
+		final File file = new File(objects, MANIFEST);
+		if (!file.exists()) return manifest;
+		try {
+			for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+				String[] parts = line.split(" ");
+				if (parts.length != 3) continue;
+				manifest.put(parts[0], new Stat(Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+			}
+		} catch (IOException | NumberFormatException e) {
+			// a broken manifest only means that every object is verified again
+			manifest.clear();
+		}
+		return manifest;
+	}
+	
+	/**
+	 * Atomically replaces the manifest
+	 * @param manifest Stat of every verified object
+	 */
+	private void writeManifest(Map<String, Stat> manifest) {
+		final File file = new File(objects, MANIFEST);
+		final File temp = new File(objects, MANIFEST + ".tmp");
+		try {
+			try (BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+				for (Map.Entry<String, Stat> entry : manifest.entrySet()) {
+					writer.write(entry.getKey() + " " + entry.getValue().size + " " + entry.getValue().modified);
+					writer.newLine();
+				}
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// catch io exceptions and rethrow them properly
+			throw new FilesystemException("Unable to write asset manifest: " + file.getAbsolutePath(), e);
+		}
+	}
+	
+}
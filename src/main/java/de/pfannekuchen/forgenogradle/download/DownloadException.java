@@ -0,0 +1,40 @@
+package de.pfannekuchen.forgenogradle.download;
+
+import java.io.IOException;
+
+/**
+ * A request that failed before any content was transferred, either worth retrying like a 503 or final like a 404
+ * @author agent
+ */
+public class DownloadException extends IOException {
+
+	private static final long serialVersionUID = 6028531847711273950L;
+	
+	/**
+	 * Whether the same request may succeed later
+	 */
+	private final boolean retryable;
+	
+	public DownloadException(String message, boolean retryable) {
+		super(message);
+		this.retryable = retryable;
+	}
+	
+	/**
+	 * Creates the exception for an unsuccessful response
+	 * @param status Status code of the response
+	 * @param message Message of the exception
+	 * @return Exception, retryable for server errors and rate limits
+	 */
+	public static DownloadException status(int status, String message) {
+		return new DownloadException(message, status >= 500 || status == 429);
+	}
+	
+	/**
+	 * @return Whether the same request may succeed later
+	 */
+	public boolean isRetryable() {
+		return retryable;
+	}
+
+}
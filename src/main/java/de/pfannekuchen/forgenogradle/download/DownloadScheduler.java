@@ -0,0 +1,122 @@
+package de.pfannekuchen.forgenogradle.download;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import de.pfannekuchen.forgenogradle.Progress;
+import de.pfannekuchen.forgenogradle.exceptions.ConnectionException;
+
+/**
+ * Runs downloads on a bounded thread pool while limiting the amount of concurrent connections per host
+ * @author agent
+ */
+public class DownloadScheduler {
+
+	/**
+	 * A single download job
+	 */
+	@FunctionalInterface
+	public static interface Job {
+		void run() throws IOException;
+	}
+	
+	/**
+	 * Executor running all jobs
+	 */
+	private final ExecutorService executor;
+	
+	/**
+	 * Permits per host, shared with all other schedulers of the run
+	 */
+	private final HostPermits hosts;
+	
+	/**
+	 * Phase all jobs are counted towards
+	 */
+	private final Progress.Phase phase;
+	
+	/**
+	 * Failures of all jobs that have finished so far
+	 */
+	private final Queue<ConnectionException> failures = new ConcurrentLinkedQueue<>();
+	
+	/**
+	 * Creates a new scheduler
+	 * @param threads Maximum amount of concurrent jobs
+	 * @param hosts Permits per host, shared with all other schedulers of the run
+	 * @param phase Phase all jobs are counted towards
+	 */
+	public DownloadScheduler(int threads, HostPermits hosts, Progress.Phase phase) {
+		this.executor = Executors.newFixedThreadPool(threads);
+		this.hosts = hosts;
+		this.phase = phase;
+	}
+	
+	/**
+	 * Queues a job downloading from the given url
+	 * @param url Url the job connects to
+	 * @param job Job to run
+	 */
+	public void submit(URL url, Job job) {
+		final Semaphore permits = hosts.get(url.getHost());
+		executor.execute(() -> {
+			phase.bind();
+			try {
+				permits.acquire();
+				final long start = System.nanoTime();
+				try {
+					job.run();
+				} finally {
+					permits.release();
+				}
+				phase.download(System.nanoTime() - start);
+				phase.file();
+			} catch (Exception e) {
+				// collect the failure instead of aborting the other jobs
+				phase.failure();
+				failures.add(new ConnectionException("Failed downloading: " + url.toString(), e));
+			} finally {
+				Progress.unbind();
+			}
+		});
+	}
+	
+	/**
+	 * Waits for all queued jobs to finish and shuts the scheduler down
+	 * @throws ConnectionException Thrown once if any of the jobs failed, containing all failures
+	 */
+	public void await() {
+		executor.shutdown();
+		try {
+			while (!executor.awaitTermination(200L, TimeUnit.MILLISECONDS)) {}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new ConnectionException("Interrupted while waiting for downloads", e);
+		}
+		if (failures.isEmpty()) return;
+		// report all failures together
+		List<ConnectionException> failed = new ArrayList<>(failures);
+		StringBuilder message = new StringBuilder(failed.size() + " download(s) failed:");
+		for (ConnectionException failure : failed) message.append("\n    ").append(failure.getMessage());
+		ConnectionException exception = new ConnectionException(message.toString(), failed.get(0));
+		for (int i = 1; i < failed.size(); i++) exception.addSuppressed(failed.get(i));
+		throw exception;
+	}
+	
+	/**
+	 * Stops all jobs that have not finished yet, so no thread outlives a failed download phase. Does nothing once the scheduler has been awaited
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+	
+}
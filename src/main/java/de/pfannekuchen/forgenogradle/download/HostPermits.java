@@ -0,0 +1,40 @@
+package de.pfannekuchen.forgenogradle.download;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits the amount of concurrent connections per host across every download scheduler sharing it
+ * @author agent
+ */
+public class HostPermits {
+
+	/**
+	 * Maximum amount of concurrent connections per host
+	 */
+	private final int perHostLimit;
+	
+	/**
+	 * Permits for every host that has been seen so far
+	 */
+	private final Map<String, Semaphore> hosts = new ConcurrentHashMap<>();
+	
+	/**
+	 * Creates the limits
+	 * @param perHostLimit Maximum amount of concurrent connections per host
+	 */
+	public HostPermits(int perHostLimit) {
+		this.perHostLimit = perHostLimit;
+	}
+	
+	/**
+	 * Obtains the permits of a host
+	 * @param host Host to connect to
+	 * @return Permits shared by all connections to the host
+	 */
+	public Semaphore get(String host) {
+		return hosts.computeIfAbsent(host, h -> new Semaphore(perHostLimit));
+	}
+
+}
@@ -0,0 +1,228 @@
+package de.pfannekuchen.forgenogradle.download;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import de.pfannekuchen.forgenogradle.Progress;
+import de.pfannekuchen.forgenogradle.Utils;
+
+/**
+ * Machine-wide cache of metadata jsons, revalidated with conditional requests so unchanged jsons cost a 304 or no request at all
+ * @author agent
+ */
+public class MetadataCache {
+
+	/**
+	 * Urls containing a sha1 as a path segment never change once published
+	 */
+	private static final Pattern IMMUTABLE = Pattern.compile(".*/[0-9a-f]{40}/.*");
+	
+	/**
+	 * Directory of the cache
+	 */
+	private final File dir;
+	
+	/**
+	 * Whether cached jsons are used without any request and other jsons are only read from a local mirror
+	 */
+	private final boolean offline;
+	
+	/**
+	 * Creates the cache
+	 * @param dir Directory of the cache
+	 * @param offline Whether cached jsons are used without any request and other jsons are only read from a local mirror
+	 */
+	public MetadataCache(File dir, boolean offline) {
+		this.dir = dir;
+		this.offline = offline;
+	}
+	
+	/**
+	 * Finds the cached copy of a json, which only exists once the json has been opened
+	 * @param url Url of the json
+	 * @return Location of the cached json
+	 */
+	public File locate(URL url) {
+		return new File(dir, key(url) + ".json");
+	}
+	
+	/**
+	 * A downloaded json, written to a temporary file while it is read
+	 */
+	private static abstract class Download extends FilterInputStream {
+		
+		/**
+		 * Whether the json has been parsed and may be stored once the stream is closed
+		 */
+		boolean committed;
+		
+		Download(InputStream in) {
+			super(in);
+		}
+		
+	}
+	
+	/**
+	 * Marks a json as successfully parsed, so a downloaded json is stored in the cache once its stream is closed. Jsons that are never committed, for example because the parser rejected them, are discarded
+	 * @param in Stream returned by {@link #open(URL)}
+	 */
+	public void commit(InputStream in) {
+		if (in instanceof Download) ((Download) in).committed = true;
+	}
+	
+	/**
+	 * Opens a json from the cache, revalidating it with the server unless it is immutable or the cache is offline. A downloaded json is written to the cache while it is read and stored once the stream is closed after it has been committed
+	 * @param url Url of the json
+	 * @return Stream of the json, which has to be closed
+	 * @throws IOException Neither the server nor the cache could provide the json
+	 */
+	public InputStream open(URL url) throws IOException {
+		final String key = key(url);
+		final File body = new File(dir, key + ".json");
+		final File info = new File(dir, key + ".properties");
+		final Properties validators = new Properties();
+		if (body.exists() && info.exists()) {
+			try (InputStream in = Files.newInputStream(info.toPath())) {
+				validators.load(in);
+			} catch (IOException | IllegalArgumentException e) {
+				// a broken entry only means that the json is downloaded again
+				validators.clear();
+			}
+		}
+		final boolean cached = url.toString().equals(validators.getProperty("url"));
+		if (cached && (offline || IMMUTABLE.matcher(url.getPath()).matches())) return Files.newInputStream(body.toPath());
+		// jsons that are not cached can only come from a local mirror in offline mode
+		final Transport transport = Utils.getTransport();
+		if (offline && !(transport instanceof MirrorTransport && ((MirrorTransport) transport).isLocal(url))) throw new IOException("Json is neither cached nor mirrored locally for offline mode: " + url.toString());
+		
+		// Revalidate the cached json
+		final Map<String, String> headers = new HashMap<>();
+		headers.put("Accept-Encoding", "gzip");
+		if (cached && validators.getProperty("etag") != null) headers.put("If-None-Match", validators.getProperty("etag"));
+		if (cached && validators.getProperty("last-modified") != null) headers.put("If-Modified-Since", validators.getProperty("last-modified"));
+		Response response = null;
+		try {
+			for (int attempt = 1; ; attempt++) {
+				try {
+					response = Utils.get(url, headers);
+					if (cached && response.getStatus() == 304) {
+						response.close();
+						return Files.newInputStream(body.toPath());
+					}
+					if (response.getStatus() / 100 != 2) throw DownloadException.status(response.getStatus(), "Server responded with " + response.getStatus() + ": " + url.toString());
+					break;
+				} catch (IOException e) {
+					if (response != null) response.close();
+					response = null;
+					// a cached json is used right away instead of waiting for the server
+					if (cached) throw e;
+					Utils.awaitRetry(url, e, attempt);
+				}
+			}
+		} catch (IOException e) {
+			if (!cached) throw e;
+			// an outdated json is better than none
+			System.err.println(String.format("[MetadataCache] Using cached json, revalidating failed: %s", e.getMessage()));
+			return Files.newInputStream(body.toPath());
+		}
+		
+		// Write the json into the cache while it is read
+		validators.clear();
+		validators.setProperty("url", url.toString());
+		if (response.getHeader("etag") != null) validators.setProperty("etag", response.getHeader("etag"));
+		if (response.getHeader("last-modified") != null) validators.setProperty("last-modified", response.getHeader("last-modified"));
+		dir.mkdirs();
+		final File temp = File.createTempFile(body.getName(), ".tmp", dir);
+		final OutputStream copy = Files.newOutputStream(temp.toPath());
+		final Response source = response;
+		return new Download(Progress.count(source.getBody())) {
+			
+			private boolean failed;
+			
+			@Override
+			public int read() throws IOException {
+				try {
+					int read = super.read();
+					if (read != -1) copy.write(read);
+					return read;
+				} catch (IOException e) {
+					failed = true;
+					throw e;
+				}
+			}
+			
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				try {
+					int read = super.read(b, off, len);
+					if (read > 0) copy.write(b, off, read);
+					return read;
+				} catch (IOException e) {
+					failed = true;
+					throw e;
+				}
+			}
+			
+			@Override
+			public void close() throws IOException {
+				try {
+					if (committed && !failed) {
+						// read whatever the parser left over, so the complete json is cached
+						final byte[] rest = new byte[8192];
+						while (read(rest, 0, rest.length) != -1);
+						copy.close();
+						store(body, info, temp, validators);
+					}
+				} finally {
+					copy.close();
+					source.close();
+					temp.delete();
+				}
+			}
+			
+		};
+	}
+	
+	/**
+	 * Derives the name of a cache entry
+	 * @param url Url of the json
+	 * @return Hash of the url
+	 */
+	private static String key(URL url) {
+		return Utils.toHex(Utils.sha1().digest(url.toString().getBytes(StandardCharsets.UTF_8)));
+	}
+	
+	/**
+	 * Writes a cache entry, replacing the json and its validators atomically
+	 * @param body File of the json
+	 * @param info File of the validators
+	 * @param content Temporary file with the content of the json
+	 * @param validators Url, ETag and Last-Modified header of the json
+	 * @throws IOException Unable to write the entry
+	 */
+	private void store(File body, File info, File content, Properties validators) throws IOException {
+		final File tempInfo = File.createTempFile(info.getName(), ".tmp", dir);
+		try {
+			try (OutputStream out = Files.newOutputStream(tempInfo.toPath())) {
+				validators.store(out, "ForgeNoGradle metadata cache");
+			}
+			// the json first, so validators never describe a different json
+			Files.move(content.toPath(), body.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			Files.move(tempInfo.toPath(), info.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			tempInfo.delete();
+		}
+	}
+	
+}
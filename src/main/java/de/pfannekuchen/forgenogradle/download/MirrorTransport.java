@@ -0,0 +1,78 @@
+package de.pfannekuchen.forgenogradle.download;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Transport redirecting every request to a mirror laid out as mirror/host/path, optionally refusing all remaining network requests
+ * @author agent
+ */
+public class MirrorTransport implements Transport {
+
+	/**
+	 * Base url of the mirror ending with a slash or null
+	 */
+	private final String mirror;
+	
+	/**
+	 * Whether requests that would leave the machine are refused
+	 */
+	private final boolean offline;
+	
+	/**
+	 * Transport sending the rewritten requests
+	 */
+	private final Transport delegate;
+	
+	/**
+	 * Creates the transport
+	 * @param mirror Local directory or url of the mirror, or null to not rewrite any url
+	 * @param offline Whether requests that would leave the machine are refused
+	 * @param delegate Transport sending the rewritten requests
+	 * @throws MalformedURLException The mirror is neither a directory nor a valid url
+	 */
+	public MirrorTransport(String mirror, boolean offline, Transport delegate) throws MalformedURLException {
+		String base = null;
+		if (mirror != null) {
+			// plain paths are local directories
+			base = mirror.contains("://") ? new URL(mirror).toString() : new File(mirror).getAbsoluteFile().toURI().toURL().toString();
+			if (!base.endsWith("/")) base += "/";
+		}
+		this.mirror = base;
+		this.offline = offline;
+		this.delegate = delegate;
+	}
+	
+	/**
+	 * Maps a url onto the mirror
+	 * @param url Original url
+	 * @return Url on the mirror or the original url without a mirror
+	 * @throws MalformedURLException Unable to build the url
+	 */
+	public URL rewrite(URL url) throws MalformedURLException {
+		if (mirror == null || !url.getProtocol().startsWith("http")) return url;
+		final String path = url.getPath().startsWith("/") ? url.getPath().substring(1) : url.getPath();
+		return new URL(mirror + url.getHost() + "/" + path);
+	}
+	
+	/**
+	 * Checks whether a url is read from a local mirror, which stays available in offline mode
+	 * @param url Original url
+	 * @return Whether the url is rewritten onto a local directory
+	 * @throws MalformedURLException Unable to build the url
+	 */
+	public boolean isLocal(URL url) throws MalformedURLException {
+		return "file".equals(rewrite(url).getProtocol());
+	}
+	
+	@Override
+	public Response get(URL url, Map<String, String> headers) throws IOException {
+		final URL mirrored = rewrite(url);
+		if (offline && mirrored.getProtocol().startsWith("http")) throw new DownloadException("Refusing to download in offline mode: " + mirrored.toString(), false);
+		return delegate.get(mirrored, headers);
+	}
+	
+}
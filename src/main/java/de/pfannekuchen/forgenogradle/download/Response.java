@@ -0,0 +1,84 @@
+package de.pfannekuchen.forgenogradle.download;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Response of a transport, the body has to be closed for the connection to be reused
+ * @author agent
+ */
+public class Response implements Closeable {
+
+	/**
+	 * HTTP status code, 200 for non HTTP urls
+	 */
+	private final int status;
+	
+	/**
+	 * Response headers with lowercase names
+	 */
+	private final Map<String, String> headers;
+	
+	/**
+	 * Decoded response body
+	 */
+	private final InputStream body;
+	
+	/**
+	 * Creates a response and transparently decodes gzip encoded bodies
+	 * @param status HTTP status code
+	 * @param headers Response headers with lowercase names
+	 * @param body Raw response body
+	 * @throws IOException Unable to decode the body
+	 */
+	public Response(int status, Map<String, String> headers, InputStream body) throws IOException {
+		this.status = status;
+		this.headers = headers;
+		this.body = "gzip".equalsIgnoreCase(headers.get("content-encoding")) ? new GZIPInputStream(body) : body;
+	}
+	
+	/**
+	 * @return HTTP status code
+	 */
+	public int getStatus() {
+		return status;
+	}
+	
+	/**
+	 * @param name Case insensitive name of the header
+	 * @return Value of the header or null
+	 */
+	public String getHeader(String name) {
+		return headers.get(name.toLowerCase(Locale.ENGLISH));
+	}
+	
+	/**
+	 * @return Length of the raw body or -1 if unknown
+	 */
+	public long getContentLength() {
+		String length = getHeader("content-length");
+		if (length == null || getHeader("content-encoding") != null) return -1;
+		try {
+			return Long.parseLong(length.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * @return Decoded response body
+	 */
+	public InputStream getBody() {
+		return body;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		body.close();
+	}
+	
+}
@@ -0,0 +1,287 @@
+package de.pfannekuchen.forgenogradle.download;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import de.pfannekuchen.forgenogradle.Progress;
+import de.pfannekuchen.forgenogradle.Utils;
+
+/**
+ * Downloads large files as several parallel HTTP range requests into a preallocated file, resuming interrupted transfers through a journal
+ * @author agent
+ */
+public class SegmentedDownload {
+
+	/**
+	 * Maximum amount of parallel segments per file
+	 */
+	private static final int SEGMENTS = 4;
+	
+	/**
+	 * Minimum size of a single segment
+	 */
+	private static final long MIN_SEGMENT_SIZE = 1024L * 1024L;
+	
+	/**
+	 * Amount of bytes written by a segment before the file is flushed to disk and the journal is updated
+	 */
+	private static final long JOURNAL_INTERVAL = 4L * 1024L * 1024L;
+	
+	/**
+	 * A byte range of the file, done being the position up to which the range has been written
+	 */
+	private static final class Segment {
+		
+		final long start;
+		final long end;
+		volatile long done;
+		
+		Segment(long start, long end, long done) {
+			this.start = start;
+			this.end = end;
+			this.done = done;
+		}
+		
+	}
+	
+	/**
+	 * Downloads a file, resuming a previously interrupted download of it
+	 * @param url URL to download
+	 * @param out Output file
+	 * @param headers Additional request headers
+	 * @throws IOException Download failed, finished segments are kept for the next attempt
+	 */
+	public static void download(URL url, File out, Map<String, String> headers) throws IOException {
+		final File part = new File(out.getParentFile(), out.getName() + ".part");
+		final File journal = new File(out.getParentFile(), out.getName() + ".part.journal");
+		// probe whether the server supports ranges
+		Map<String, String> probeHeaders = new HashMap<>(headers);
+		probeHeaders.put("Range", "bytes=0-0");
+		long length = -1;
+		String validator;
+		for (int attempt = 1; ; attempt++) {
+			try (Response probe = Utils.get(url, probeHeaders)) {
+				if (probe.getStatus() == 200) {
+					// no range support, stream the whole body into the file
+					System.out.println(String.format("[SegmentedDownload] %s does not support ranges, downloading as a single stream", out.getName()));
+					journal.delete();
+					Files.copy(Progress.count(probe.getBody()), part.toPath(), StandardCopyOption.REPLACE_EXISTING);
+					Files.move(part.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+					return;
+				}
+				String range = probe.getHeader("Content-Range");
+				if (probe.getStatus() != 206 || range == null) throw DownloadException.status(probe.getStatus(), "Server responded with " + probe.getStatus() + ": " + url.toString());
+				length = Long.parseLong(range.substring(range.indexOf('/') + 1).trim());
+				validator = validator(probe);
+				break;
+			} catch (NumberFormatException e) {
+				// unknown total length
+				Utils.download(url, out);
+				return;
+			} catch (IOException e) {
+				Utils.awaitRetry(url, e, attempt);
+			}
+		}
+		// resume or preallocate the file, only resuming if the file on the server is still the same
+		List<Segment> segments = validator == null ? null : readJournal(journal, url, length, validator);
+		if (segments == null || !part.exists() || part.length() != length) {
+			segments = split(length);
+			try (RandomAccessFile file = new RandomAccessFile(part, "rw")) {
+				file.setLength(length);
+			}
+			writeJournal(journal, url, length, validator, segments);
+		} else {
+			System.out.println(String.format("[SegmentedDownload] Resuming %s", out.getName()));
+		}
+		// download all unfinished segments in parallel
+		final List<Segment> finalSegments = segments;
+		final long finalLength = length;
+		final String finalValidator = validator;
+		final Map<String, String> rangeHeaders = new HashMap<>(headers);
+		// the server sends the whole file instead of the range if it has changed since the probe
+		if (validator != null) rangeHeaders.put("If-Range", validator);
+		final Progress.Phase phase = Progress.current();
+		ExecutorService executor = Executors.newFixedThreadPool(segments.size());
+		try (FileChannel channel = FileChannel.open(part.toPath(), StandardOpenOption.WRITE)) {
+			List<Future<?>> futures = new ArrayList<>();
+			for (Segment segment : segments) {
+				if (segment.done >= segment.end) continue;
+				futures.add(executor.submit(() -> {
+					if (phase != null) phase.bind();
+					// every attempt continues where the last one stopped
+					for (int attempt = 1; ; attempt++) {
+						try {
+							downloadSegment(url, rangeHeaders, channel, segment, () -> checkpoint(channel, journal, url, finalLength, finalValidator, finalSegments));
+							return null;
+						} catch (IOException e) {
+							Utils.awaitRetry(url, e, attempt);
+						}
+					}
+				}));
+			}
+			IOException failure = null;
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					if (failure == null) failure = new IOException("Failed downloading segment: " + url.toString(), e.getCause());
+					else failure.addSuppressed(e.getCause());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while downloading: " + url.toString(), e);
+				}
+			}
+			// keep the journal of the finished segments for the next attempt
+			checkpoint(channel, journal, url, finalLength, finalValidator, finalSegments);
+			if (failure != null) throw failure;
+		} finally {
+			executor.shutdownNow();
+		}
+		Files.move(part.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		journal.delete();
+	}
+	
+	/**
+	 * Downloads the remaining bytes of a segment into the file
+	 * @param url URL to download
+	 * @param headers Additional request headers
+	 * @param channel Channel of the preallocated file
+	 * @param segment Segment to download
+	 * @param checkpoint Updates the journal
+	 * @throws IOException Download failed
+	 */
+	private static void downloadSegment(URL url, Map<String, String> headers, FileChannel channel, Segment segment, Checkpoint checkpoint) throws IOException {
+		Map<String, String> rangeHeaders = new HashMap<>(headers);
+		rangeHeaders.put("Range", "bytes=" + segment.done + "-" + (segment.end - 1));
+		try (Response response = Utils.get(url, rangeHeaders)) {
+			if (response.getStatus() == 200 && headers.containsKey("If-Range")) throw new DownloadException("File changed on the server while downloading: " + url.toString(), false);
+			if (response.getStatus() != 206) throw DownloadException.status(response.getStatus(), "Server responded with " + response.getStatus() + " to a range request: " + url.toString());
+			InputStream in = Progress.count(response.getBody());
+			byte[] buffer = new byte[64 * 1024];
+			long unsaved = 0;
+			int read;
+			while (segment.done < segment.end && (read = in.read(buffer, 0, (int) Math.min(buffer.length, segment.end - segment.done))) != -1) {
+				ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+				long position = segment.done;
+				while (data.hasRemaining()) position += channel.write(data, position);
+				segment.done = position;
+				if ((unsaved += read) >= JOURNAL_INTERVAL) {
+					checkpoint.save();
+					unsaved = 0;
+				}
+			}
+		}
+		if (segment.done < segment.end) throw new IOException("Connection closed early: " + url.toString());
+	}
+	
+	/**
+	 * Flushes the written segments to disk and saves the journal
+	 */
+	@FunctionalInterface
+	private static interface Checkpoint {
+		void save() throws IOException;
+	}
+	
+	/**
+	 * Picks the validator identifying the version of a file on the server, usable in an If-Range header
+	 * @param response Response of the server
+	 * @return Strong ETag, Last-Modified date or null if the server sent neither
+	 */
+	private static String validator(Response response) {
+		final String etag = response.getHeader("ETag");
+		// weak etags are not allowed in If-Range
+		if (etag != null && !etag.startsWith("W/")) return etag;
+		return response.getHeader("Last-Modified");
+	}
+	
+	/**
+	 * Flushes the written data to disk before updating the journal, so the journal never claims data that a crash could lose
+	 * @param channel Channel of the preallocated file
+	 * @param journal Journal file
+	 * @param url URL of the download
+	 * @param length Length of the file
+	 * @param validator Validator of the file on the server
+	 * @param segments Segments of the download
+	 * @throws IOException Unable to flush the file or write the journal
+	 */
+	private static void checkpoint(FileChannel channel, File journal, URL url, long length, String validator, List<Segment> segments) throws IOException {
+		channel.force(false);
+		writeJournal(journal, url, length, validator, segments);
+	}
+	
+	/**
+	 * Splits a file into segments
+	 * @param length Length of the file
+	 * @return Segments covering the whole file
+	 */
+	private static List<Segment> split(long length) {
+		int count = (int) Math.max(1, Math.min(SEGMENTS, length / MIN_SEGMENT_SIZE));
+		List<Segment> segments = new ArrayList<>();
+		long size = length / count;
+		for (int i = 0; i < count; i++) {
+			long start = i * size;
+			long end = i == count - 1 ? length : start + size;
+			segments.add(new Segment(start, end, start));
+		}
+		return segments;
+	}
+	
+	/**
+	 * Reads the journal of an interrupted download
+	 * @param journal Journal file
+	 * @param url URL of the download
+	 * @param length Length of the file
+	 * @param validator Validator of the file on the server
+	 * @return Segments of the download or null if the journal does not belong to this download
+	 */
+	private static List<Segment> readJournal(File journal, URL url, long length, String validator) {
+		if (!journal.exists()) return null;
+		try {
+			List<String> lines = Files.readAllLines(journal.toPath(), StandardCharsets.UTF_8);
+			if (lines.size() < 4 || !url.toString().equals(lines.get(0)) || length != Long.parseLong(lines.get(1)) || !validator.equals(lines.get(2))) return null;
+			List<Segment> segments = new ArrayList<>();
+			for (String line : lines.subList(3, lines.size())) {
+				String[] parts = line.split(" ");
+				segments.add(new Segment(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+			}
+			return segments;
+		} catch (IOException | RuntimeException e) {
+			// a broken journal only means that the download starts over
+			return null;
+		}
+	}
+	
+	/**
+	 * Writes the journal of a download
+	 * @param journal Journal file
+	 * @param url URL of the download
+	 * @param length Length of the file
+	 * @param validator Validator of the file on the server or null
+	 * @param segments Segments of the download
+	 * @throws IOException Unable to write the journal
+	 */
+	private static synchronized void writeJournal(File journal, URL url, long length, String validator, List<Segment> segments) throws IOException {
+		StringBuilder builder = new StringBuilder();
+		builder.append(url.toString()).append('\n').append(length).append('\n').append(validator == null ? "" : validator).append('\n');
+		for (Segment segment : segments) builder.append(segment.start).append(' ').append(segment.end).append(' ').append(segment.done).append('\n');
+		Files.write(journal.toPath(), builder.toString().getBytes(StandardCharsets.UTF_8));
+	}
+	
+}
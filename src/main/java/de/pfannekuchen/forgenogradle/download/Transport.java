@@ -0,0 +1,32 @@
+package de.pfannekuchen.forgenogradle.download;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Pluggable transport used for every request, implementations are expected to reuse connections
+ * @author agent
+ */
+public interface Transport {
+
+	/**
+	 * Connect timeout in milliseconds
+	 */
+	public static final int CONNECT_TIMEOUT = Integer.getInteger("fng.connectTimeout", 15000);
+	
+	/**
+	 * Read timeout in milliseconds, both until the response arrived and between two reads of the body
+	 */
+	public static final int READ_TIMEOUT = Integer.getInteger("fng.readTimeout", 30000);
+	
+	/**
+	 * Sends a GET request
+	 * @param url URL to request
+	 * @param headers Additional request headers
+	 * @return Response, which has to be closed
+	 * @throws IOException Request failed
+	 */
+	public Response get(URL url, Map<String, String> headers) throws IOException;
+	
+}
@@ -0,0 +1,45 @@
+package de.pfannekuchen.forgenogradle.download;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Transport using the keep-alive cache of java's url connections, available on every java version.
+ * The amount of idle connections kept alive per host is the global http.maxConnections property, which is raised by {@link de.pfannekuchen.forgenogradle.Utils}
+ * @author agent
+ */
+public class UrlConnectionTransport implements Transport {
+
+	@Override
+	public Response get(URL url, Map<String, String> headers) throws IOException {
+		URLConnection c = url.openConnection();
+		c.setConnectTimeout(CONNECT_TIMEOUT);
+		c.setReadTimeout(READ_TIMEOUT);
+		for (Entry<String, String> header : headers.entrySet()) c.setRequestProperty(header.getKey(), header.getValue());
+		// collect response headers
+		Map<String, String> responseHeaders = new HashMap<>();
+		if (!(c instanceof HttpURLConnection)) {
+			InputStream body = c.getInputStream();
+			if (c.getContentLengthLong() != -1) responseHeaders.put("content-length", Long.toString(c.getContentLengthLong()));
+			return new Response(200, responseHeaders, body);
+		}
+		HttpURLConnection http = (HttpURLConnection) c;
+		int status = http.getResponseCode();
+		for (Entry<String, List<String>> header : http.getHeaderFields().entrySet()) {
+			if (header.getKey() != null && !header.getValue().isEmpty()) responseHeaders.put(header.getKey().toLowerCase(Locale.ENGLISH), header.getValue().get(0));
+		}
+		// error bodies have to be consumed as well for the connection to be reused
+		InputStream body = status >= 400 ? http.getErrorStream() : http.getInputStream();
+		return new Response(status, responseHeaders, body != null ? body : new ByteArrayInputStream(new byte[0]));
+	}
+	
+}
@@ -0,0 +1,124 @@
+package de.pfannekuchen.forgenogradle.download;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import de.pfannekuchen.forgenogradle.Utils;
+import de.pfannekuchen.forgenogradle.exceptions.FilesystemException;
+
+/**
+ * Hashes an existing workspace on all cores and re-fetches every file that is missing or corrupt
+ * @author agent
+ */
+public class WorkspaceVerifier {
+
+	/**
+	 * Size of the direct buffer every file is read through while hashing
+	 */
+	private static final int BUFFER_SIZE = 1024 * 1024;
+	
+	/**
+	 * Direct buffer of every hashing thread
+	 */
+	private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+	
+	/**
+	 * A file in the workspace with a known hash
+	 */
+	public static final class Entry {
+		
+		final URL url;
+		final String sha1;
+		final File file;
+		
+		public Entry(URL url, String sha1, File file) {
+			this.url = url;
+			this.sha1 = sha1;
+			this.file = file;
+		}
+		
+	}
+	
+	/**
+	 * Store to repair corrupt files from
+	 */
+	private final ArtifactStore store;
+	
+	/**
+	 * Prepares a verification
+	 * @param store Store to repair corrupt files from
+	 */
+	public WorkspaceVerifier(ArtifactStore store) {
+		this.store = store;
+	}
+	
+	/**
+	 * Verifies all files and repairs the ones that are missing or corrupt
+	 * @param entries Files to verify
+	 * @param scheduler Scheduler to run the repairs on
+	 * @return Amount of repaired files
+	 */
+	public int verify(List<Entry> entries, DownloadScheduler scheduler) {
+		final Queue<Entry> corrupt = new ConcurrentLinkedQueue<>();
+		final ExecutorService e = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()); // create an executor with the system cores
+		for (Entry entry : entries) {
+			e.execute(() -> {
+				try {
+					if (!entry.file.exists() || !entry.sha1.equalsIgnoreCase(sha1(entry.file))) corrupt.add(entry);
+				} catch (IOException e1) {
+					corrupt.add(entry);
+				}
+			});
+		}
+		// Wait for tasks to finish
+		e.shutdown();
+		try {
+			while (!e.awaitTermination(200L, TimeUnit.MILLISECONDS)) {}
+		} catch (InterruptedException e1) {
+			Thread.currentThread().interrupt();
+			throw new FilesystemException("Interrupted while verifying workspace", e1);
+		}
+		System.out.println(String.format("[WorkspaceVerifier] Verified %d files, %d missing or corrupt", entries.size(), corrupt.size()));
+		for (Entry entry : new ArrayList<>(corrupt)) {
+			scheduler.submit(entry.url, () -> {
+				entry.file.getParentFile().mkdirs();
+				store.repair(entry.url, entry.sha1, entry.file);
+			});
+		}
+		scheduler.await();
+		return corrupt.size();
+	}
+	
+	/**
+	 * Calculates the SHA-1 hash of a file using reads into a direct buffer, which unlike a mapping leaves nothing behind that keeps windows from replacing the file
+	 * @param file File to hash
+	 * @return Lowercase hex encoded hash
+	 * @throws IOException Unable to read the file
+	 */
+	private static String sha1(File file) throws IOException {
+		final MessageDigest digest = Utils.sha1();
+		final ByteBuffer buffer = BUFFER.get();
+		buffer.clear();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			while (channel.read(buffer) != -1) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		}
+		return Utils.toHex(digest.digest());
+	}
+	
+}
@@ -0,0 +1,85 @@
+package de.pfannekuchen.forgenogradle.game;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-capacity ring buffer of log lines, written lock-free by any thread and read through cheap snapshots
+ * @author agent
+ */
+public class LogBuffer {
+
+	/**
+	 * Severity of a log line
+	 */
+	public static enum Severity {
+		INFO, ERROR
+	}
+	
+	/**
+	 * A single immutable log line
+	 */
+	public static final class Entry {
+		
+		public final String text;
+		public final Severity severity;
+		
+		Entry(String text, Severity severity) {
+			this.text = text;
+			this.severity = severity;
+		}
+		
+	}
+	
+	/**
+	 * Slots of the ring buffer
+	 */
+	private final AtomicReferenceArray<Entry> entries;
+	
+	/**
+	 * Mask mapping a sequence number onto a slot
+	 */
+	private final int mask;
+	
+	/**
+	 * Sequence number of the next entry
+	 */
+	private final AtomicLong next = new AtomicLong();
+	
+	/**
+	 * Creates an empty buffer
+	 * @param capacity Capacity of the buffer, rounded up to a power of two
+	 */
+	public LogBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		this.entries = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+	}
+	
+	/**
+	 * Adds a line, overwriting the oldest line once the buffer is full
+	 * @param text Text of the line
+	 * @param severity Severity of the line
+	 */
+	public void add(String text, Severity severity) {
+		entries.set((int) (next.getAndIncrement() & mask), new Entry(text, severity));
+	}
+	
+	/**
+	 * Copies the newest lines into an array, newest first
+	 * @param out Array to copy into, its length being the maximum amount of lines
+	 * @return Amount of copied lines
+	 */
+	public int snapshot(Entry[] out) {
+		final long last = next.get();
+		final int count = (int) Math.min(Math.min(out.length, mask + 1), last);
+		int copied = 0;
+		for (int i = 0; i < count; i++) {
+			// a slot that is still being written holds the previous line, which is good enough for an overlay
+			Entry entry = entries.get((int) ((last - 1 - i) & mask));
+			if (entry != null) out[copied++] = entry;
+		}
+		return copied;
+	}
+	
+}
@@ -3,16 +3,14 @@ package de.pfannekuchen.forgenogradle.game;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.FontMetrics;
-import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.GraphicsEnvironment;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.awt.image.BufferedImage;
+import java.awt.image.BufferStrategy;
 import java.io.PrintStream;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 
 import javax.swing.JFrame;
 
@@ -22,6 +20,21 @@ import javax.swing.JFrame;
  */
 public class Pong extends JFrame implements KeyListener {
 	
+	/**
+	 * Length of a single physics step in nanoseconds
+	 */
+	private static final long STEP = 1000000000L / 60;
+	
+	/**
+	 * Font of the score
+	 */
+	private static final Font SCORE_FONT = new Font(Font.MONOSPACED, Font.ITALIC, 32);
+	
+	/**
+	 * Font of the console overlay and the frame counter
+	 */
+	private static final Font LOG_FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+	
 	/**
 	 * Prepares the window by setting the size and some window hints
 	 */
@@ -34,59 +47,121 @@ public class Pong extends JFrame implements KeyListener {
 		// hide title bar
 		setUndecorated(true);
 		setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
+		// everything is drawn by the game thread
+		setIgnoreRepaint(true);
 		setVisible(true);
+		createBufferStrategy(2);
 		addKeyListener(this);
 		// start game thread
-		new Thread(() -> {
-			try {
-				while (true) {
-					// wait a frame
-					repaint();
-					Thread.sleep(16);
-					// moving
-					if (isWPressed) y1 -= 0.025;
-					if (isSPressed) y1 += 0.025;
-					// ball moving
-					if (rol) ballx += 0.0125;
-					else ballx -= 0.0125;
-					if (uod) bally += 0.0125/9*16;
-					else bally -= 0.0125/9*16;
-					
-					// top bottom collision
-					double ballsize = ballpixelsize*6;
-					if (bally >= 1-ballsize) uod = false;
-					if (bally <= ballsize) uod = true;
-					
-					// box collision. flawed but who cares
-					if (ballx < 0.06 && bally > y1 && bally < y1+size) rol = true;
-					if (ballx > 0.95-0.05 && bally > y2 && bally < y2+size) rol = false;
-					
-					// move box 2
-					if (ballx > 0.75 && rol) {
-						if (bally > y2+size/2) y2+=0.025;
-						else y2-=0.025;
-					}
-					
-					// clamp positions
-					if (y1 > 1-size) y1 = 1-size;
-					else if (y1 < 0) y1 = 0;
-					if (y2 > 1-size) y2 = 1-size;
-					else if (y2 < 0) y2 = 0;
-					
-					
-					// map collision
-					if (ballx >= 1-ballsize) score1++;
-					if (ballx <= 0) score2++;
-					if (ballx >= 1-ballsize || ballx <= 0) {
-						ballx = 0.5;
-						bally = 0.5;
-						continue;
-					}
+		new Thread(this::loop, "Pong").start();
+	}
+	
+	/**
+	 * Advances the game in fixed steps and renders as often as the steps allow
+	 */
+	private void loop() {
+		try {
+			final BufferStrategy strategy = getBufferStrategy();
+			long last = System.nanoTime();
+			long accumulator = 0;
+			long counterStart = last;
+			long counterAllocated = allocatedBytes();
+			int frames = 0;
+			while (true) {
+				long now = System.nanoTime();
+				accumulator += now - last;
+				last = now;
+				// catch up on missed steps, but never spiral when the machine is busy
+				if (accumulator > STEP * 5) accumulator = STEP * 5;
+				while (accumulator >= STEP) {
+					update();
+					accumulator -= STEP;
 				}
-			} catch (Exception e) {
-				e.printStackTrace();
+				// render a frame
+				do {
+					do {
+						Graphics2D g = (Graphics2D) strategy.getDrawGraphics();
+						try {
+							render(g);
+						} finally {
+							g.dispose();
+						}
+					} while (strategy.contentsRestored());
+					strategy.show();
+				} while (strategy.contentsLost());
+				frames++;
+				// refresh the frame counter once a second
+				if (now - counterStart >= 1000000000L) {
+					long allocated = allocatedBytes();
+					counter = counterAllocated < 0 ? String.format("%d fps", frames) : String.format("%d fps, %d KB/frame", frames, (allocated - counterAllocated) / 1024 / frames);
+					counterStart = now;
+					counterAllocated = allocated;
+					frames = 0;
+				}
+				// sleep until the next step is due
+				long wait = STEP - accumulator - (System.nanoTime() - last);
+				if (wait > 0) Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
 			}
-		}).start();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Bytes allocated by the current thread so far
+	 * @return Allocated bytes or -1 if the JVM cannot measure them
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+		com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+		if (!sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled()) return -1;
+		return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+	
+	/**
+	 * Advances the game by a single step
+	 */
+	private void update() {
+		// moving
+		if (isWPressed) y1 -= 0.025;
+		if (isSPressed) y1 += 0.025;
+		// ball moving
+		if (rol) ballx += 0.0125;
+		else ballx -= 0.0125;
+		if (uod) bally += 0.0125/9*16;
+		else bally -= 0.0125/9*16;
+		
+		// top bottom collision
+		double ballsize = ballpixelsize*6;
+		if (bally >= 1-ballsize) uod = false;
+		if (bally <= ballsize) uod = true;
+		
+		// box collision. flawed but who cares
+		if (ballx < 0.06 && bally > y1 && bally < y1+size) rol = true;
+		if (ballx > 0.95-0.05 && bally > y2 && bally < y2+size) rol = false;
+		
+		// move box 2
+		if (ballx > 0.75 && rol) {
+			if (bally > y2+size/2) y2+=0.025;
+			else y2-=0.025;
+		}
+		
+		// clamp positions
+		if (y1 > 1-size) y1 = 1-size;
+		else if (y1 < 0) y1 = 0;
+		if (y2 > 1-size) y2 = 1-size;
+		else if (y2 < 0) y2 = 0;
+		
+		
+		// map collision
+		if (ballx >= 1-ballsize) score1++;
+		if (ballx <= 0) score2++;
+		if (ballx >= 1-ballsize || ballx <= 0) {
+			ballx = 0.5;
+			bally = 0.5;
+			score = score1 + " - " + score2;
+		}
 	}
 	
 	// Positions of the boxes in percent
@@ -115,73 +190,80 @@ public class Pong extends JFrame implements KeyListener {
 	// scores of the game
 	int score1 = 0;
 	int score2 = 0;
+	// rendered texts, only rebuilt when they change
+	String score = "0 - 0";
+	String counter = "";
+	// font metrics, measured on the first frame
+	FontMetrics scoreMetrics;
+	FontMetrics logMetrics;
 	
 	/**
 	 * Renders Pong
+	 * @param g Graphics of the back buffer
 	 */
-	@Override
-	public void paint(Graphics gr) {
-		// double buffered image
-		BufferedImage img = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB);
-		Graphics2D g = img.createGraphics();
+	private void render(Graphics2D g) {
+		if (scoreMetrics == null) {
+			scoreMetrics = g.getFontMetrics(SCORE_FONT);
+			logMetrics = g.getFontMetrics(LOG_FONT);
+		}
+		final int width = getWidth();
+		final int height = getHeight();
 		g.setColor(Color.black);
-		g.fillRect(0, 0, getWidth(), getHeight());
+		g.fillRect(0, 0, width, height);
 		// Render left and right boxes
 		g.setColor(Color.white);
-		g.fillRect((int) (getWidth()/2-(getWidth()*0.45)), (int) (y1*getHeight()), (int) (0.015*getWidth()), (int) (size*getHeight()));
-		g.fillRect((int) (getWidth()/2+(getWidth()*0.435)), (int) (y2*getHeight()), (int) (0.015*getWidth()), (int) (size*getHeight()));
+		g.fillRect((int) (width/2-(width*0.45)), (int) (y1*height), (int) (0.015*width), (int) (size*height));
+		g.fillRect((int) (width/2+(width*0.435)), (int) (y2*height), (int) (0.015*width), (int) (size*height));
 		// Score
-		g.setFont(new Font(Font.MONOSPACED, 2, 32));
-		FontMetrics m = g.getFontMetrics();
-		g.drawString(score1 + " - " + score2, (int) (0.5*getWidth())-m.stringWidth(score1 + " - " + score2)/2, (int) (0.05*getHeight()));
+		g.setFont(SCORE_FONT);
+		g.drawString(score, (int) (0.5*width)-scoreMetrics.stringWidth(score)/2, (int) (0.05*height));
 		// Render Ball
-		int size = (int) (getWidth()*ballpixelsize);
+		int size = (int) (width*ballpixelsize);
 		for (int x = 0; x < 6; x++) {
 			for (int y = 0; y < 6; y++) {
-				if (texture[x][y] == 1) g.fillRect((int) (getWidth()*ballx) + x*size, (int) (getHeight()*bally) + y*size, size, size);
+				if (texture[x][y] == 1) g.fillRect((int) (width*ballx) + x*size, (int) (height*bally) + y*size, size, size);
 			}
 		}
+		// Frame counter
+		g.setFont(LOG_FONT);
+		g.setColor(Color.gray);
+		g.drawString(counter, 15, logMetrics.getHeight());
 		// Text Background
-		int y = (int) (getHeight()-m.getHeight()*1.1);
-		g.setFont(new Font(Font.MONOSPACED, 0, 12));
-		m = g.getFontMetrics();
-		List<String> clone = new ArrayList<>(allstrings);
-		Collections.reverse(clone);
-		if (clone.size() > 80) clone = clone.subList(0, 80);
-		for (String string : clone) {
-			if (redstrings.contains(string))
+		int y = (int) (height-scoreMetrics.getHeight()*1.1);
+		int count = LOG.snapshot(visible);
+		for (int i = 0; i < count; i++) {
+			if (visible[i].severity == LogBuffer.Severity.ERROR)
 				g.setColor(Color.red);
 			else
 				g.setColor(Color.green);
-			g.drawString(string, 15, y);
-			y -= m.getHeight()*1;
+			g.drawString(visible[i].text, 15, y);
+			y -= logMetrics.getHeight()*1;
 		}
-		gr.drawImage(img, 0, 0, null);
 	}
 	
-	private static ArrayList<String> strings = new ArrayList<>();
-	private static ArrayList<String> redstrings = new ArrayList<>();
-	private static ArrayList<String> allstrings = new ArrayList<>();
+	/**
+	 * Most recent lines of stdout and stderr
+	 */
+	private static final LogBuffer LOG = new LogBuffer(128);
+	
+	/**
+	 * Lines visible on screen, reused every frame
+	 */
+	private final LogBuffer.Entry[] visible = new LogBuffer.Entry[80];
 	
 	public static void runPong() {
 		new Pong();
 		System.setOut(new PrintStream(System.out) {
 			@Override
 			public void print(String x) {
-				if (x != null) {
-					strings.add(x.replace("\t", "        "));
-					allstrings.add(x.replace("\t", "        "));
-				}
+				if (x != null) LOG.add(x.replace("\t", "        "), LogBuffer.Severity.INFO);
 				super.print(x);
 			}
 		});
 		System.setErr(new PrintStream(System.err) {
 			@Override
 			public void print(String x) {
-				if (x != null) {
-					redstrings.add(x.replace("\t", "        "));
-					allstrings.add(x.replace("\t", "        "));
-				}
+				if (x != null) LOG.add(x.replace("\t", "        "), LogBuffer.Severity.ERROR);
 				super.print(x);
 			}
 		});
@@ -12,5 +12,11 @@ public class Artifact {
 	@SerializedName("url")
 	@Expose
 	public String url;
+	@SerializedName("sha1")
+	@Expose
+	public String sha1;
+	@SerializedName("size")
+	@Expose
+	public Long size;
 
 }
@@ -1,8 +0,0 @@
-package de.pfannekuchen.forgenogradle.gson.jsonassets;
-
-public class Asset {
-
-	public String hash;
-	public long size;
-	
-}
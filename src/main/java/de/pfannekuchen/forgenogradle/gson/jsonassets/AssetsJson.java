@@ -1,9 +1,126 @@
 package de.pfannekuchen.forgenogradle.gson.jsonassets;
 
-import java.util.Map;
+import java.io.IOException;
+import java.util.Arrays;
 
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Compact asset index holding every object as a 20 byte digest and a size, parsed straight from a json stream
+ * @author Pancake
+ */
 public class AssetsJson {
 
-	public Map<String, Asset> objects;
+	/**
+	 * Length of a sha1 digest in bytes
+	 */
+	private static final int DIGEST_LENGTH = 20;
+	
+	/**
+	 * Digests of all objects, one after another
+	 */
+	private byte[] hashes = new byte[DIGEST_LENGTH * 1024];
+	
+	/**
+	 * Sizes of all objects
+	 */
+	private long[] sizes = new long[1024];
+	
+	/**
+	 * Amount of objects
+	 */
+	private int count;
+	
+	/**
+	 * Parses the objects of an asset index, ignoring their names
+	 * @param reader Reader positioned before the asset index
+	 * @return Parsed asset index
+	 * @throws IOException Unable to read or parse the json
+	 */
+	public static AssetsJson read(JsonReader reader) throws IOException {
+		final AssetsJson assets = new AssetsJson();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (!"objects".equals(reader.nextName())) {
+				reader.skipValue();
+				continue;
+			}
+			reader.beginObject();
+			while (reader.hasNext()) {
+				reader.nextName();
+				String hash = null;
+				long size = 0;
+				reader.beginObject();
+				while (reader.hasNext()) {
+					switch (reader.nextName()) {
+						case "hash":
+							hash = reader.nextString();
+							break;
+						case "size":
+							size = reader.nextLong();
+							break;
+						default:
+							reader.skipValue();
+					}
+				}
+				reader.endObject();
+				if (hash == null || hash.length() != DIGEST_LENGTH * 2) throw new IOException("Invalid asset hash: " + hash);
+				assets.add(hash, size);
+			}
+			reader.endObject();
+		}
+		reader.endObject();
+		return assets;
+	}
+	
+	/**
+	 * Appends an object
+	 * @param hash Hex encoded sha1 of the object
+	 * @param size Size of the object
+	 * @throws IOException The hash is not hex encoded
+	 */
+	private void add(String hash, long size) throws IOException {
+		if (count == sizes.length) {
+			sizes = Arrays.copyOf(sizes, count * 2);
+			hashes = Arrays.copyOf(hashes, count * 2 * DIGEST_LENGTH);
+		}
+		final int offset = count * DIGEST_LENGTH;
+		for (int i = 0; i < DIGEST_LENGTH; i++) {
+			int high = Character.digit(hash.charAt(i * 2), 16);
+			int low = Character.digit(hash.charAt(i * 2 + 1), 16);
+			if (high == -1 || low == -1) throw new IOException("Invalid asset hash: " + hash);
+			hashes[offset + i] = (byte) (high << 4 | low);
+		}
+		sizes[count++] = size;
+	}
+	
+	/**
+	 * @return Amount of objects, including objects sharing the same hash
+	 */
+	public int size() {
+		return count;
+	}
+	
+	/**
+	 * @param index Index of the object
+	 * @return Lowercase hex encoded sha1 of the object
+	 */
+	public String getHash(int index) {
+		final char[] hex = new char[DIGEST_LENGTH * 2];
+		final int offset = index * DIGEST_LENGTH;
+		for (int i = 0; i < DIGEST_LENGTH; i++) {
+			hex[i * 2] = Character.forDigit((hashes[offset + i] >> 4) & 0xF, 16);
+			hex[i * 2 + 1] = Character.forDigit(hashes[offset + i] & 0xF, 16);
+		}
+		return new String(hex);
+	}
+	
+	/**
+	 * @param index Index of the object
+	 * @return Size of the object in bytes
+	 */
+	public long getSize(int index) {
+		return sizes[index];
+	}
 	
 }